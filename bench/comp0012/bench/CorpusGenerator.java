@@ -0,0 +1,59 @@
+package comp0012.bench;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes a directory of synthetic classes that Main can optimise, for scaling tests on realistic
+ * method sizes. Class i is named comp0012.corpus.Synthetic&lt;i&gt; and has a single method with the
+ * requested shape, see SyntheticClasses.
+ */
+public class CorpusGenerator {
+
+    @Option(name="-out", required=true, usage="Root directory of the generated classfiles")
+    private String outputRoot;
+
+    @Option(name="-classes", usage="Number of classes to generate")
+    private int classes = 1;
+
+    @Option(name="-locals", usage="Local variables per method (N)")
+    private int locals = 64;
+
+    @Option(name="-reassign", usage="Stores after the initial constant assignments (M)")
+    private int reassignments = 256;
+
+    @Option(name="-nesting", usage="Operators in every assigned expression (K)")
+    private int nesting = 1;
+
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        CmdLineParser parser = new CmdLineParser(generator);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        generator.run();
+    }
+
+    private void run() throws IOException {
+        Path dir = Paths.get(outputRoot, "comp0012", "corpus");
+        Files.createDirectories(dir);
+        long bytes = 0;
+        for (int i = 0; i < classes; i++) {
+            byte[] classFile = SyntheticClasses.generate("comp0012.corpus.Synthetic" + i, locals, reassignments, nesting);
+            Files.write(dir.resolve("Synthetic" + i + ".class"), classFile);
+            bytes += classFile.length;
+        }
+        System.out.printf("Generated %d classes (%d locals, %d reassignments, nesting %d), %d bytes in %s%n",
+                classes, locals, reassignments, nesting, bytes, dir);
+    }
+}
@@ -0,0 +1,38 @@
+package comp0012.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class files used as benchmark input, selected by the "input" parameter.
+ * A name of the form synthetic-N is a generated class with N locals and 4N reassignments,
+ * anything else is a comp0012.target class read from the class path.
+ */
+final class Inputs {
+
+    static final String SYNTHETIC = "synthetic-";
+
+    private Inputs() {
+    }
+
+    static byte[] load(String input) throws IOException {
+        if (input.startsWith(SYNTHETIC)) {
+            int locals = Integer.parseInt(input.substring(SYNTHETIC.length()));
+            return SyntheticClasses.generate("comp0012.bench.Synthetic" + locals, locals, 4 * locals);
+        }
+        String resource = "/comp0012/target/" + input + ".class";
+        try (InputStream in = Inputs.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException(resource + " is not on the class path, run the compile target first");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package comp0012.bench;
+
+import comp0012.main.ConstantFolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the three stages of ConstantFolder, in classes per second.
+ * Run with -prof gc to also get the allocation rate per class.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OptimiserBenchmark {
+
+    @Param({"ConstantVariableFolding", "DynamicVariableFolding", "SimpleFolding", "synthetic-64", "synthetic-512"})
+    public String input;
+
+    private byte[] classFile;
+
+    /** Parsed but not yet optimised, for optimize() */
+    private ConstantFolder fresh;
+
+    /** Already optimised, so write() measures serialisation only */
+    private ConstantFolder optimised;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        classFile = Inputs.load(input);
+        optimised = new ConstantFolder(classFile);
+        optimised.optimize();
+    }
+
+    // optimize() is not repeatable on the same instance, so every call needs a freshly parsed class
+    @Setup(Level.Invocation)
+    public void parseFresh() throws IOException {
+        fresh = new ConstantFolder(classFile);
+    }
+
+    @Benchmark
+    public ConstantFolder parse() throws IOException {
+        return new ConstantFolder(classFile);
+    }
+
+    @Benchmark
+    public ConstantFolder optimize() {
+        fresh.optimize();
+        return fresh;
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return optimised.toByteArray();
+    }
+}
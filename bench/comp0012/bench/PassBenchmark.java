@@ -0,0 +1,86 @@
+package comp0012.bench;
+
+import comp0012.main.passes.ConstantPropagationPass;
+import comp0012.main.passes.ConstantVariableFoldPass;
+import comp0012.main.passes.DynamicVariableFoldPass;
+import comp0012.main.passes.OptimizationPass;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One run of a single pass over every method of a class, on IR that has already been lifted,
+ * so the time is the pass alone. Reported in classes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PassBenchmark {
+
+    @Param({"constfold", "dynfold", "sccp"})
+    public String pass;
+
+    @Param({"ConstantVariableFolding", "DynamicVariableFolding", "synthetic-64", "synthetic-512"})
+    public String input;
+
+    private JavaClass parsed;
+    private ConstantPoolGen cpgen;
+    private List<MethodGen> methods;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        byte[] classFile = Inputs.load(input);
+        parsed = new ClassParser(new ByteArrayInputStream(classFile), input).parse();
+    }
+
+    // passes rewrite the instruction lists in place, so each call starts from a fresh copy
+    @Setup(Level.Invocation)
+    public void lift() {
+        ClassGen cgen = new ClassGen(parsed);
+        cpgen = cgen.getConstantPool();
+        methods = new ArrayList<>();
+        for (Method m : cgen.getMethods()) {
+            MethodGen mg = new MethodGen(m, cgen.getClassName(), cpgen);
+            if (mg.getInstructionList() != null) methods.add(mg);
+        }
+    }
+
+    @Benchmark
+    public int runPass() {
+        OptimizationPass p;
+        switch (pass) {
+            case "dynfold": p = new DynamicVariableFoldPass(); break;
+            case "sccp": p = new ConstantPropagationPass(); break;
+            default: p = new ConstantVariableFoldPass();
+        }
+        int changed = 0;
+        for (MethodGen mg : methods) {
+            if (p.runOnMethod(mg, cpgen)) changed++;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,71 @@
+package comp0012.bench;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs TargetRuntimeBenchmark and prints, for every target method, the time per call before and after
+ * optimisation, the speedup and the bytecode length of both versions.
+ * Command line arguments are passed on to JMH, e.g. -f 2 -wi 10.
+ */
+public class RuntimeComparison {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(TargetRuntimeBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Dcomp0012.original=" + TargetRuntimeBenchmark.classesDir(TargetRuntimeBenchmark.ORIGINAL).getAbsolutePath(),
+                        "-Dcomp0012.optimised=" + TargetRuntimeBenchmark.classesDir(TargetRuntimeBenchmark.OPTIMISED).getAbsolutePath())
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        Map<String, double[]> times = new TreeMap<>();
+        for (RunResult r : results) {
+            String method = r.getParams().getParam("method");
+            int column = TargetRuntimeBenchmark.OPTIMISED.equals(r.getParams().getParam("variant")) ? 1 : 0;
+            times.computeIfAbsent(method, k -> new double[] { Double.NaN, Double.NaN })[column] =
+                    r.getPrimaryResult().getScore();
+        }
+
+        System.out.println();
+        System.out.printf("%-40s %14s %14s %8s %10s %10s%n",
+                "method", "original ns", "optimised ns", "speedup", "bytes orig", "bytes opt");
+        for (Map.Entry<String, double[]> e : times.entrySet()) {
+            double[] t = e.getValue();
+            System.out.printf("%-40s %14.3f %14.3f %7.2fx %10d %10d%n", e.getKey(), t[0], t[1], t[0] / t[1],
+                    codeLength(TargetRuntimeBenchmark.ORIGINAL, e.getKey()),
+                    codeLength(TargetRuntimeBenchmark.OPTIMISED, e.getKey()));
+        }
+    }
+
+    /**
+     * @return length of the method's bytecode in the given variant, or -1 if it cannot be found
+     */
+    private static int codeLength(String variant, String method) throws IOException {
+        int dot = method.lastIndexOf('.');
+        File file = new File(TargetRuntimeBenchmark.classesDir(variant),
+                "comp0012/target/" + method.substring(0, dot) + ".class");
+        if (!file.isFile()) return -1;
+        JavaClass c = new ClassParser(file.getPath()).parse();
+        for (Method m : c.getMethods()) {
+            Code code = m.getCode();
+            if (m.getName().equals(method.substring(dot + 1)) && code != null) {
+                return code.getCode().length;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,60 @@
+package comp0012.bench;
+
+import comp0012.main.ConstantFolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to optimise one synthetic method as the number of reassignments grows, with 64 locals and
+ * two operators per expression. If the optimiser is linear, the score doubles with each size step.
+ * ScalingCheck runs the same measurement without JMH and fails the build on superlinear growth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScalingBenchmark {
+
+    @Param({"250", "500", "1000", "2000", "4000"})
+    public int reassignments;
+
+    @Param({"64"})
+    public int locals;
+
+    @Param({"2"})
+    public int nesting;
+
+    private byte[] classFile;
+    private ConstantFolder fresh;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        classFile = SyntheticClasses.generate("comp0012.bench.Scaling", locals, reassignments, nesting);
+    }
+
+    @Setup(Level.Invocation)
+    public void parseFresh() throws IOException {
+        fresh = new ConstantFolder(classFile);
+    }
+
+    @Benchmark
+    public ConstantFolder optimize() {
+        fresh.optimize();
+        return fresh;
+    }
+}
@@ -0,0 +1,151 @@
+package comp0012.bench;
+
+import comp0012.main.ConstantFolder;
+import comp0012.main.metrics.MethodMetrics;
+import comp0012.main.passes.PassManager;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Plots optimiser time against method size and fails if it grows faster than allowed.
+ * The growth exponent is the least squares slope of log(time per pipeline iteration) over log(instructions),
+ * so 1.0 is linear and 2.0 quadratic. The number of iterations is bounded by PassManager and depends on how
+ * long the assignment chains are, so it is reported but not part of the gate.
+ * Used by the bench.scaling target as a regression gate.
+ */
+public class ScalingCheck {
+
+    private static final int BAR_WIDTH = 50;
+
+    @Option(name="-sizes", usage="Comma separated reassignment counts (M)")
+    private String sizes = "250,500,1000,2000,4000";
+
+    @Option(name="-locals", usage="Local variables per method (N)")
+    private int locals = 64;
+
+    @Option(name="-nesting", usage="Operators in every assigned expression (K)")
+    private int nesting = 2;
+
+    @Option(name="-passes", usage="Pipeline to measure, e.g. dynfold to check a single pass")
+    private String passes = PassManager.DEFAULT_PIPELINE;
+
+    @Option(name="-runs", usage="Timed runs per size; the median is reported")
+    private int runs = 5;
+
+    @Option(name="-warmup", usage="Untimed runs of every size before measuring")
+    private int warmup = 3;
+
+    @Option(name="-maxExponent", usage="Fail if the growth exponent is larger than this")
+    private double maxExponent = 1.5;
+
+    public static void main(String[] args) throws IOException {
+        ScalingCheck check = new ScalingCheck();
+        CmdLineParser parser = new CmdLineParser(check);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        if (!check.run()) {
+            System.exit(1);
+        }
+    }
+
+    private boolean run() throws IOException {
+        int[] m = Arrays.stream(sizes.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        int[] instructions = new int[m.length];
+        double[] millis = new double[m.length];
+        double[] allocated = new double[m.length];
+        int[] iterations = new int[m.length];
+        double[] perIteration = new double[m.length];
+
+        byte[][] classFiles = new byte[m.length][];
+        for (int i = 0; i < m.length; i++) {
+            classFiles[i] = SyntheticClasses.generate("comp0012.bench.Scaling", locals, m[i], nesting);
+            instructions[i] = 2 * locals + m[i] * (2 + 2 * nesting) + 2;
+        }
+        // warm up on every size first, so the small sizes are not measured while still interpreted
+        for (int w = 0; w < warmup; w++) {
+            for (byte[] classFile : classFiles) {
+                folder(classFile).optimize();
+            }
+        }
+        for (int i = 0; i < m.length; i++) {
+            byte[] classFile = classFiles[i];
+            long[] times = new long[runs];
+            for (int r = 0; r < runs; r++) {
+                ConstantFolder cf = folder(classFile);
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                cf.optimize();
+                times[r] = System.nanoTime() - start;
+                allocated[i] = (allocatedBytes() - bytes) / 1e6;
+                iterations[i] = cf.getMetrics().getMethods().stream().mapToInt(MethodMetrics::getIterations).sum();
+            }
+            Arrays.sort(times);
+            millis[i] = times[runs / 2] / 1e6;
+            perIteration[i] = millis[i] / Math.max(iterations[i], 1);
+        }
+
+        double max = Arrays.stream(perIteration).max().orElse(1);
+        System.out.printf("%12s %12s %10s %14s %14s %12s%n", "instructions", "ms", "iterations", "ms/iteration",
+                "us/instruction", "MB allocated");
+        for (int i = 0; i < m.length; i++) {
+            int bar = (int) Math.round(BAR_WIDTH * perIteration[i] / max);
+            System.out.printf("%12d %12.3f %10d %14.3f %14.3f %12.1f  %s%n", instructions[i], millis[i], iterations[i],
+                    perIteration[i], 1000 * perIteration[i] / instructions[i], allocated[i],
+                    repeat('#', Math.max(bar, 1)));
+        }
+
+        System.out.printf("Total time growth exponent %.2f%n", slope(instructions, millis));
+        double exponent = slope(instructions, perIteration);
+        boolean ok = exponent <= maxExponent;
+        System.out.printf("Per-iteration growth exponent %.2f (1.0 is linear, limit %.2f): %s%n", exponent, maxExponent,
+                ok ? "OK" : "FAILED");
+        return ok;
+    }
+
+    private ConstantFolder folder(byte[] classFile) throws IOException {
+        ConstantFolder cf = new ConstantFolder(classFile);
+        cf.setPassManager(new PassManager(passes));
+        return cf;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or 0 if the JVM does not count them
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static double slope(int[] x, double[] y) {
+        int n = x.length;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < n; i++) {
+            double lx = Math.log(x[i]);
+            double ly = Math.log(y[i]);
+            sx += lx;
+            sy += ly;
+            sxx += lx * lx;
+            sxy += lx * ly;
+        }
+        return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
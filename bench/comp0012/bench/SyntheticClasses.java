@@ -0,0 +1,83 @@
+package comp0012.bench;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Builds classes with arbitrarily large, straight-line int methods, so that the benchmarks can
+ * measure the optimiser on inputs far bigger than the comp0012.target fixtures.
+ */
+public final class SyntheticClasses {
+
+    /** Largest method the JVM accepts */
+    public static final int MAX_CODE_LENGTH = 65535;
+
+    private static final String[] OPERATORS = { "*", "+", "-", "+" };
+
+    private SyntheticClasses() {
+    }
+
+    /**
+     * Same as generate(className, locals, reassignments, 1)
+     */
+    public static byte[] generate(String className, int locals, int reassignments) {
+        return generate(className, locals, reassignments, 1);
+    }
+
+    /**
+     * A class with one static int method "compute" that stores a constant into each of {@code locals} slots
+     * and then performs {@code reassignments} stores, cycling through the slots. The value of each store is
+     * an expression with {@code nesting} operators, e.g. for nesting 3: {@code a = ((b + c) * 5) - d}.
+     * Half of the operands are loads, the other half constants.
+     * @return the class file
+     * @throws IllegalArgumentException if the method would exceed the 64KB code limit
+     */
+    public static byte[] generate(String className, int locals, int reassignments, int nesting) {
+        if (locals < 1 || reassignments < 0 || nesting < 1) {
+            throw new IllegalArgumentException("need at least one local and one operator per expression");
+        }
+        ClassGen cg = new ClassGen(className, "java.lang.Object", "<generated>",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+        cg.setMajor(50);
+        ConstantPoolGen cp = cg.getConstantPool();
+        InstructionList il = new InstructionList();
+
+        for (int i = 0; i < locals; i++) {
+            il.append(new PUSH(cp, i * 7919 + 3));
+            il.append(InstructionFactory.createStore(Type.INT, i));
+        }
+        for (int j = 0; j < reassignments; j++) {
+            il.append(InstructionFactory.createLoad(Type.INT, (j + 1) % locals));
+            for (int k = 0; k < nesting; k++) {
+                if (k % 2 == 0) {
+                    il.append(InstructionFactory.createLoad(Type.INT, (j + k + 2) % locals));
+                } else {
+                    il.append(new PUSH(cp, j + k));
+                }
+                il.append(InstructionFactory.createBinaryOperation(OPERATORS[(j + k) % OPERATORS.length], Type.INT));
+            }
+            il.append(InstructionFactory.createStore(Type.INT, j % locals));
+        }
+        il.append(InstructionFactory.createLoad(Type.INT, 0));
+        il.append(InstructionFactory.createReturn(Type.INT));
+
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, Type.NO_ARGS, null,
+                "compute", className, il, cp);
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        int codeLength = il.getByteCode().length;
+        if (codeLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("method would be " + codeLength + " bytes, the limit is "
+                    + MAX_CODE_LENGTH);
+        }
+        cg.addMethod(mg.getMethod());
+        il.dispose();
+        return cg.getJavaClass().getBytes();
+    }
+}
@@ -0,0 +1,91 @@
+package comp0012.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one comp0012.target method as compiled and as optimised.
+ * Each variant is loaded from its own directory in its own class loader, so both versions of a class
+ * live side by side in the same JVM. The directories come from the comp0012.original and
+ * comp0012.optimised system properties. Console output of the targets is discarded.
+ * Both variants pay the same method handle call overhead, which is small next to the methods that print.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TargetRuntimeBenchmark {
+
+    static final String ORIGINAL = "original";
+    static final String OPTIMISED = "optimised";
+
+    @Param({"ConstantVariableFolding.methodOne", "ConstantVariableFolding.methodTwo",
+            "ConstantVariableFolding.methodThree", "ConstantVariableFolding.methodFour",
+            "DynamicVariableFolding.methodOne", "DynamicVariableFolding.methodTwo",
+            "DynamicVariableFolding.methodThree", "DynamicVariableFolding.methodFour",
+            "SimpleFolding.simple"})
+    public String method;
+
+    @Param({ORIGINAL, OPTIMISED})
+    public String variant;
+
+    private URLClassLoader loader;
+    private MethodHandle target;
+    private PrintStream out;
+
+    static File classesDir(String variant) {
+        return OPTIMISED.equals(variant)
+                ? new File(System.getProperty("comp0012.optimised", "optimised/classes"))
+                : new File(System.getProperty("comp0012.original", "build/classes"));
+    }
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        // the platform loader as parent keeps the copy of comp0012.target on our own class path out of the way
+        loader = new URLClassLoader(new URL[] { classesDir(variant).toURI().toURL() },
+                ClassLoader.getPlatformClassLoader());
+        int dot = method.lastIndexOf('.');
+        Class<?> c = loader.loadClass("comp0012.target." + method.substring(0, dot));
+        Object instance = c.getDeclaredConstructor().newInstance();
+        MethodHandle mh = MethodHandles.publicLookup().findVirtual(c, method.substring(dot + 1),
+                MethodType.methodType(c.getMethod(method.substring(dot + 1)).getReturnType()));
+        target = mh.bindTo(instance).asType(MethodType.methodType(Object.class));
+
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        System.setOut(out);
+        loader.close();
+    }
+
+    @Benchmark
+    public Object invoke() throws Throwable {
+        return (Object) target.invokeExact();
+    }
+}
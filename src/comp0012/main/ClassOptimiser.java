@@ -0,0 +1,155 @@
+package comp0012.main;
+
+import comp0012.main.metrics.ClassMetrics;
+import comp0012.main.passes.PassManager;
+import comp0012.main.passes.ProgramInfo;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimises a single class file.
+ * Implementations may be loaded in a worker's own class loader, so this interface only uses JDK types.
+ */
+public interface ClassOptimiser {
+
+    /** Option key: comma separated pass pipeline, see PassManager */
+    String PASSES = "passes";
+
+    /** Option key: "true" to minimise class file size, see ConstantFolder.setMinimiseSize */
+    String SIZE = "size";
+
+    /** Option key: "true" to collect metrics for Main's -report */
+    String METRICS = "metrics";
+
+    /**
+     * Apply driver options before the first class is optimised
+     */
+    void configure(Map<String, String> options);
+
+    /**
+     * Hand over what Main collected about the whole input before the first class is optimised
+     * @param staticConstants values of static final fields keyed by StaticFieldConstants.key()
+     */
+    void setStaticConstants(Map<String, Number> staticConstants);
+
+    /**
+     * Hand over the methods of the input marked with @Pure before the first class is optimised
+     * @param pureMethods keyed by ProgramInfo.methodKey()
+     * @param classLoader loads the classes of the input to run those methods
+     */
+    void setPureMethods(Set<String> pureMethods, ClassLoader classLoader);
+
+    /**
+     * Hand over the methods of the input that the inline pass may copy into other classes, whose class
+     * files it reads through the class loader given to setPureMethods()
+     * @param inlinableMethods keyed by ProgramInfo.methodKey()
+     */
+    void setInlinableMethods(Set<String> inlinableMethods);
+
+    void optimise(String inputPath, String outputPath) throws IOException;
+
+    /**
+     * @return the metrics of the class last optimised as a JSON object, or null if metrics are off
+     */
+    String lastMetrics();
+
+    /**
+     * @return summable counters of the class last optimised; only poolBefore and poolAfter, which the run
+     * summary prints, if metrics are off
+     */
+    Map<String, Long> lastCounters();
+
+    /**
+     * Default implementation: run the ConstantFolder over one file
+     */
+    class Default implements ClassOptimiser {
+        private PassManager passes = new PassManager(PassManager.DEFAULT_PIPELINE);
+        private ProgramInfo program = ProgramInfo.EMPTY;
+        private Map<String, Number> staticConstants = Collections.emptyMap();
+        private Set<String> pureMethods = Collections.emptySet();
+        private Set<String> inlinableMethods = Collections.emptySet();
+        private ClassLoader classLoader = ClassOptimiser.class.getClassLoader();
+        private boolean minimiseSize = false;
+        private boolean collectMetrics = false;
+        private ClassMetrics last = null;
+        private Map<String, Long> counters = null;
+
+        @Override
+        public void configure(Map<String, String> options) {
+            String pipeline = options.get(PASSES);
+            if (pipeline != null) {
+                passes = new PassManager(pipeline);
+                passes.setProgram(program);
+            }
+            minimiseSize = Boolean.parseBoolean(options.get(SIZE));
+            collectMetrics = Boolean.parseBoolean(options.get(METRICS));
+        }
+
+        @Override
+        public void setStaticConstants(Map<String, Number> staticConstants) {
+            this.staticConstants = staticConstants;
+            updateProgram();
+        }
+
+        @Override
+        public void setPureMethods(Set<String> pureMethods, ClassLoader classLoader) {
+            this.pureMethods = pureMethods;
+            this.classLoader = classLoader;
+            updateProgram();
+        }
+
+        @Override
+        public void setInlinableMethods(Set<String> inlinableMethods) {
+            this.inlinableMethods = inlinableMethods;
+            updateProgram();
+        }
+
+        private void updateProgram() {
+            program = new ProgramInfo(staticConstants, pureMethods, inlinableMethods, classLoader);
+            passes.setProgram(program);
+        }
+
+        @Override
+        public void optimise(String inputPath, String outputPath) throws IOException {
+            ConstantFolder cf = new ConstantFolder(inputPath);
+            configure(cf);
+            cf.write(outputPath);
+            collect(cf);
+        }
+
+        @Override
+        public String lastMetrics() {
+            return last == null ? null : last.toJson();
+        }
+
+        @Override
+        public Map<String, Long> lastCounters() {
+            return counters;
+        }
+
+        void configure(ConstantFolder cf) {
+            cf.setPassManager(passes);
+            cf.setMinimiseSize(minimiseSize);
+            last = null;
+            counters = null;
+        }
+
+        /**
+         * Keep the metrics of an optimised class for lastMetrics() and lastCounters()
+         */
+        void collect(ConstantFolder cf) {
+            if (collectMetrics) {
+                last = cf.getMetrics();
+                counters = last.counters();
+            } else {
+                counters = new LinkedHashMap<>();
+                counters.put("poolBefore", (long) cf.metrics.getConstantPoolBefore());
+                counters.put("poolAfter", (long) cf.metrics.getConstantPoolAfter());
+            }
+        }
+    }
+}
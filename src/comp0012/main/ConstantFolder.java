@@ -1,1162 +1,254 @@
 package comp0012.main;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 import org.apache.bcel.classfile.ClassParser;
-import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
-import org.apache.bcel.classfile.Field;
-import org.apache.bcel.util.InstructionFinder;
 import org.apache.bcel.generic.*;
 
+import comp0012.main.metrics.ClassMetrics;
+import comp0012.main.metrics.ClassOptimisedEvent;
+import comp0012.main.metrics.MethodMetrics;
+import comp0012.main.passes.PassManager;
+
 public class ConstantFolder
 {
+	/** Recorded by the incremental mode of Main; bump whenever the generated bytecode changes */
+	public static final String VERSION = "6";
+
 	ClassParser parser = null;
 	ClassGen gen = null;
 	JavaClass original = null;
 	JavaClass optimized = null;
-
-	private static class VariableState {
-		int position;
-		Number value;
-		Set<Integer> dependsOn;
-
-		public VariableState(int pos, Number val) {
-			this.position = pos;
-			this.value = val;
-			this.dependsOn = new HashSet<>();
-		}
-
-		public VariableState(int pos, Number val, Set<Integer> deps) {
-			this.position = pos;
-			this.value = val;
-			this.dependsOn = new HashSet<>(deps);
-		}
+	PassManager passes = new PassManager(PassManager.DEFAULT_PIPELINE);
+	boolean minimiseSize = false;
+	ClassMetrics metrics = null;
+
+	/**
+	 * @throws IOException if the file cannot be read
+	 * @throws org.apache.bcel.classfile.ClassFormatException if it is not a valid class file
+	 */
+	public ConstantFolder(String classFilePath) throws IOException
+	{
+		this(new ClassParser(classFilePath));
 	}
 
-	private static class VariableScope {
-		int startPosition;
-		int endPosition;
-		Number value;
-
-		public VariableScope(int start, Number val) {
-			this.startPosition = start;
-			this.value = val;
-			this.endPosition = Integer.MAX_VALUE;
-		}
+	/**
+	 * Parse a class file from a stream, e.g. a jar entry, without going through the file system.
+	 * The stream is not closed.
+	 * @param in stream positioned at the start of the class file
+	 * @param fileName name used in error messages
+	 */
+	public ConstantFolder(InputStream in, String fileName) throws IOException
+	{
+		this(new ClassParser(in, fileName));
 	}
 
-	public ConstantFolder(String classFilePath)
+	/**
+	 * Parse a class file held in memory, e.g. produced by a code generator
+	 */
+	public ConstantFolder(byte[] classFile) throws IOException
 	{
-		try{
-			this.parser = new ClassParser(classFilePath);
-			this.original = this.parser.parse();
-			this.gen = new ClassGen(this.original);
-		} catch(IOException e){
-			e.printStackTrace();
-		}
+		this(classFile, 0, classFile.length);
 	}
 
-	private void constant_var_fold(ClassGen cgen, ConstantPoolGen cpgen) {
-		for (Method method : cgen.getMethods()) {
-			MethodGen mg = new MethodGen(method, cgen.getClassName(), cpgen);
-			InstructionList il = mg.getInstructionList();
-			if (il == null) continue;
-
-			Map<Integer, Number> constantVars = findConstantAssignments(il, cpgen);
-			Set<Integer> reassigned = findReassignedVariables(il);
-			for (Integer varIndex : reassigned) {
-				if (constantVars.containsKey(varIndex)) {
-					constantVars.remove(varIndex);
-				}
-			}
-			replaceConstantLoads(il, cpgen, constantVars);
-
-			boolean changed;
-			do {
-				changed = false;
-				InstructionHandle current = il.getStart();
-				while (current != null) {
-					InstructionHandle next = tryFoldExpression(current, il, cpgen, constantVars);
-					if (next != null) {
-						changed = true;
-						il.setPositions(true);
-					}
-					current = (next != null) ? next : current.getNext();
-				}
-			} while (changed);
-
-			if (il != null) {
-				il.setPositions(true);
-				mg.setMaxStack();
-				mg.setMaxLocals();
-
-				Method newMethod = mg.getMethod();
-				cgen.replaceMethod(method, newMethod);
-			}
-		}
+	public ConstantFolder(byte[] classFile, int offset, int length) throws IOException
+	{
+		this(new ByteArrayInputStream(classFile, offset, length), "<memory>");
 	}
 
-	private void redirectTargeters(InstructionHandle oldTarget, InstructionHandle newTarget) {
-		if (oldTarget.hasTargeters()) {
-			for (InstructionTargeter targeter : oldTarget.getTargeters()) {
-				targeter.updateTarget(oldTarget, newTarget);
-			}
-		}
+	/**
+	 * Parse the remaining bytes of the buffer; its position is left unchanged
+	 */
+	public ConstantFolder(ByteBuffer classFile) throws IOException
+	{
+		this(toArray(classFile));
 	}
 
-	private void replaceWithConstant(InstructionList il,
-									 InstructionHandle from,
-									 InstructionHandle to,
-									 Number value,
-									 ConstantPoolGen cpgen) {
-		try {
-			Instruction constInstr;
-			if (value instanceof Integer) {
-				constInstr = new LDC(cpgen.addInteger(value.intValue()));
-			} else if (value instanceof Float) {
-				constInstr = new LDC(cpgen.addFloat(value.floatValue()));
-			} else if (value instanceof Long) {
-				constInstr = new LDC2_W(cpgen.addLong(value.longValue()));
-			} else if (value instanceof Double) {
-				constInstr = new LDC2_W(cpgen.addDouble(value.doubleValue()));
-			} else {
-				return;
-			}
-
-			InstructionHandle inserted = il.insert(from, constInstr);
-
-			for (InstructionHandle h = from; h != to.getNext(); h = h.getNext()) {
-				redirectTargeters(h, inserted);
-			}
-
-			il.delete(from, to);
-		} catch (TargetLostException e) {
-			System.err.println("Failed to replace expression with constant: " + e.getMessage());
-		}
+	private ConstantFolder(ClassParser parser) throws IOException
+	{
+		this.parser = parser;
+		this.original = this.parser.parse();
+		this.gen = new ClassGen(this.original);
 	}
 
-	private Number getConstantValue(InstructionHandle handle, ConstantPoolGen cpgen, Map<Integer, Number> constants) {
-		Instruction inst = handle.getInstruction();
-
-		if (inst instanceof ConstantPushInstruction) {
-			return ((ConstantPushInstruction) inst).getValue();
-		} else if (inst instanceof LDC) {
-			Object val = ((LDC) inst).getValue(cpgen);
-			return (val instanceof Number) ? (Number) val : null;
-		} else if (inst instanceof LDC2_W) {
-			Object val = ((LDC2_W) inst).getValue(cpgen);
-			return (val instanceof Number) ? (Number) val : null;
-		}
-
-		if (inst instanceof LoadInstruction) {
-			int index = ((LoadInstruction) inst).getIndex();
-			return constants.get(index);
-		}
-
-		InstructionHandle prev2 = handle.getPrev();
-		InstructionHandle prev1 = (prev2 != null) ? prev2.getPrev() : null;
-
-		if (prev1 != null && prev2 != null) {
-			Instruction op     = inst;
-			Number val1 = getConstantValue(prev1, cpgen, constants);
-			Number val2 = getConstantValue(prev2, cpgen, constants);
-
-			if (val1 == null || val2 == null) return null;
-
-			if (op instanceof IADD) return val1.intValue() + val2.intValue();
-			if (op instanceof ISUB) return val1.intValue() - val2.intValue();
-			if (op instanceof IMUL) return val1.intValue() * val2.intValue();
-			if (op instanceof IDIV && val2.intValue() != 0) return val1.intValue() / val2.intValue();
-			if (op instanceof IREM && val2.intValue() != 0) return val1.intValue() % val2.intValue();
-
-			if (op instanceof LADD) return val1.longValue() + val2.longValue();
-			if (op instanceof LSUB) return val1.longValue() - val2.longValue();
-			if (op instanceof LMUL) return val1.longValue() * val2.longValue();
-			if (op instanceof LDIV && val2.longValue() != 0) return val1.longValue() / val2.longValue();
-			if (op instanceof LREM && val2.longValue() != 0) return val1.longValue() % val2.longValue();
-
-			if (op instanceof DADD) return val1.doubleValue() + val2.doubleValue();
-			if (op instanceof DSUB) return val1.doubleValue() - val2.doubleValue();
-			if (op instanceof DMUL) return val1.doubleValue() * val2.doubleValue();
-			if (op instanceof DDIV && val2.doubleValue() != 0.0) return val1.doubleValue() / val2.doubleValue();
-			if (op instanceof DREM && val2.doubleValue() != 0.0) return val1.doubleValue() % val2.doubleValue();
-		}
-		if (inst instanceof I2D) {
-			InstructionHandle prev = handle.getPrev();
-			if (prev != null) {
-				Number val = getConstantValue(prev, cpgen, constants);
-				if (val != null && val instanceof Integer) {
-					return val.doubleValue();
-				}
-			}
-		}
-
-		return null;
+	private static byte[] toArray(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
 	}
 
+	/**
+	 * Select the passes run by optimize(); defaults to PassManager.DEFAULT_PIPELINE
+	 */
+	public void setPassManager(PassManager passes)
+	{
+		this.passes = passes;
+		this.optimized = null;
+	}
 
-	private Number evaluateRecursive(InstructionHandle start, int depth, ConstantPoolGen cpgen, Map<Integer, Number> constants) {
-		Instruction inst = start.getInstruction();
-
-		// Handle cases like:
-		if (inst instanceof DADD) {
-			InstructionHandle i2dHandle = start.getPrev();
-			if (i2dHandle == null) return null;
-
-			Instruction i2d = i2dHandle.getInstruction();
-
-			if (i2d instanceof I2D) {
-				InstructionHandle intHandle = i2dHandle.getPrev();
-				InstructionHandle doubleHandle = intHandle != null ? intHandle.getPrev() : null;
-
-				if (intHandle == null || doubleHandle == null) return null;
-
-				Number left = getConstantValue(doubleHandle, cpgen, constants);
-				Number right = getConstantValue(intHandle, cpgen, constants);
-
-				if (left != null && right != null) {
-					double result = left.doubleValue() + right.doubleValue();
-					return result;
-				}
-			}
-		}
-
-		if (start == null || depth > 5) return null;
-
-		Number left = getConstantValue(start, cpgen, constants);
-
-		if (left == null) {
-			InstructionHandle leftStart = start.getPrev();
-			if (leftStart == null || leftStart.getPrev() == null) return null;
-
-			InstructionHandle op1 = leftStart;
-			InstructionHandle op2 = leftStart.getNext();
-			InstructionHandle op3 = op2 != null ? op2.getNext() : null;
-
-			if (op3 == null || !(op3.getInstruction() instanceof ArithmeticInstruction)) return null;
-
-			Number v1 = getConstantValue(op1, cpgen, constants);
-			Number v2 = getConstantValue(op2, cpgen, constants);
-			ArithmeticInstruction op = (ArithmeticInstruction) op3.getInstruction();
-
-			if (v1 != null && v2 != null) {
-				Number result = applyArithmetic(v1, v2, op);
-				if (result != null) {
-					constants.putIfAbsent(999 + depth, result);
-					return result;
-				}
-			}
-			return null;
-		}
-		return left;
+	/**
+	 * Trade compile time for a smaller class file: the constants loaded by ldc and ldc_w move to the
+	 * lowest pool indices, most loaded first, so that as many loads as possible take the two byte ldc form
+	 */
+	public void setMinimiseSize(boolean minimiseSize)
+	{
+		this.minimiseSize = minimiseSize;
+		this.optimized = null;
 	}
 
+	/**
+	 * Every method is lifted into a MethodGen once, all passes work on that instruction list,
+	 * and the class is only serialised again at the end.
+	 */
+	public void optimize() {
+		ClassGen cgen = new ClassGen(original);
+		cgen.setMajor(50);
+		metrics = new ClassMetrics(cgen.getClassName());
 
-	private Number applyArithmetic(Number v1, Number v2, ArithmeticInstruction op) {
+		ClassOptimisedEvent event = new ClassOptimisedEvent();
+		event.begin();
+		long start = System.nanoTime();
+		boolean modified = false;
 		try {
-			if (op instanceof IADD) return v1.intValue() + v2.intValue();
-			if (op instanceof ISUB) return v1.intValue() - v2.intValue();
-			if (op instanceof IMUL) return v1.intValue() * v2.intValue();
-			if (op instanceof IDIV && v2.intValue() != 0) return v1.intValue() / v2.intValue();
-			if (op instanceof IREM && v2.intValue() != 0) return v1.intValue() % v2.intValue();
-
-			if (op instanceof LADD) return v1.longValue() + v2.longValue();
-			if (op instanceof LSUB) return v1.longValue() - v2.longValue();
-			if (op instanceof LMUL) return v1.longValue() * v2.longValue();
-			if (op instanceof LDIV && v2.longValue() != 0) return v1.longValue() / v2.longValue();
-			if (op instanceof LREM && v2.longValue() != 0) return v1.longValue() % v2.longValue();
+			modified = passes.run(cgen, metrics);
 
-			if (op instanceof FADD) return v1.floatValue() + v2.floatValue();
-			if (op instanceof FSUB) return v1.floatValue() - v2.floatValue();
-			if (op instanceof FMUL) return v1.floatValue() * v2.floatValue();
-			if (op instanceof FDIV && v2.floatValue() != 0.0f) return v1.floatValue() / v2.floatValue();
-			if (op instanceof FREM && v2.floatValue() != 0.0f) return v1.floatValue() % v2.floatValue();
-
-			if (op instanceof DADD) return v1.doubleValue() + v2.doubleValue();
-			if (op instanceof DSUB) return v1.doubleValue() - v2.doubleValue();
-			if (op instanceof DMUL) return v1.doubleValue() * v2.doubleValue();
-			if (op instanceof DDIV && v2.doubleValue() != 0.0) return v1.doubleValue() / v2.doubleValue();
-			if (op instanceof DREM && v2.doubleValue() != 0.0) return v1.doubleValue() % v2.doubleValue();
+			gen = cgen;
+			this.optimized = compactConstantPool(gen.getJavaClass());
 		} catch (Exception e) {
-			System.err.println("Error in arithmetic operation: " + e.getMessage());
-		}
-		return null;
-	}
-
-
-	private InstructionHandle tryFoldExpression(InstructionHandle handle, InstructionList il, ConstantPoolGen cpgen, Map<Integer, Number> constants) {
-		if (handle == null || handle.getNext() == null || handle.getNext().getNext() == null)
-			return null;
-
-		InstructionHandle h1 = handle;
-		InstructionHandle h2 = h1.getNext();
-		InstructionHandle h3 = h2.getNext();
-
-		Instruction opInstr = h3.getInstruction();
-		if (!(opInstr instanceof ArithmeticInstruction)) return null;
-
-		Number result = evaluateRecursive(h3, 0, cpgen, constants);
-		if (result == null) return null;
-
-		InstructionHandle nextAfter = h3.getNext();
-
-		replaceWithConstant(il, h1, h3, result, cpgen);
-
-		if (nextAfter != null && nextAfter.getInstruction() instanceof StoreInstruction) {
-			StoreInstruction store = (StoreInstruction) nextAfter.getInstruction();
-			constants.put(store.getIndex(), result);
-			nextAfter = nextAfter.getNext();
-		}
-		il.setPositions(true);
-		return nextAfter;
-	}
-
-
-	private Set<Integer> findReassignedVariables(InstructionList il) {
-		Set<Integer> reassigned = new HashSet<>();
-		Map<Integer, Boolean> seenOnce = new HashMap<>();
-
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			Instruction inst = handle.getInstruction();
-
-			if (inst instanceof StoreInstruction) {
-				int varIndex = ((StoreInstruction) inst).getIndex();
-
-				if (!seenOnce.containsKey(varIndex)) {
-					seenOnce.put(varIndex, true);
-				} else {
-					reassigned.add(varIndex);
-				}
-			}
-		}
-		return reassigned;
-	}
-
-
-	private Map<Integer, Number> findConstantAssignments(InstructionList il, ConstantPoolGen cpgen) {
-		Map<Integer, Number> constants = new HashMap<>();
-
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			Instruction inst = handle.getInstruction();
-			InstructionHandle next = handle.getNext();
-			if (next == null) continue;
-
-			Instruction nextInst = next.getInstruction();
-
-			Number value = null;
-			if (inst instanceof LDC) {
-				try {
-					Object cst = ((LDC) inst).getValue(cpgen);
-					if (cst instanceof Number) value = (Number) cst;
-				} catch (RuntimeException e) {
-					// Ignore and do not assign a value
-				}
-			} else if (inst instanceof LDC2_W) {
-				try {
-					Object cst = ((LDC2_W) inst).getValue(cpgen);
-					if (cst instanceof Number) value = (Number) cst;
-				} catch (RuntimeException e) {
-					// Ignore and do not assign a value
-				}
-			}
-
-			if (value != null && nextInst instanceof StoreInstruction) {
-				int varIndex = ((StoreInstruction) nextInst).getIndex();
-				constants.put(varIndex, value);
-			}
+			System.err.println("Optimization failed:");
+			e.printStackTrace();
+			this.optimized = this.original;
 		}
-
-		return constants;
-	}
-
-
-	private void replaceConstantLoads(InstructionList il, ConstantPoolGen cpgen, Map<Integer, Number> constantVars) {
-		for (InstructionHandle handle = il.getStart(); handle != null; ) {
-			Instruction inst = handle.getInstruction();
-
-			if (inst instanceof LoadInstruction) {
-				int varIndex = ((LoadInstruction) inst).getIndex();
-
-				InstructionHandle next = handle.getNext();
-				if (next != null) {
-					Instruction nextInst = next.getInstruction();
-					if (
-							nextInst instanceof IfInstruction ||
-									nextInst instanceof LCMP ||
-									nextInst instanceof FCMPG ||
-									nextInst instanceof FCMPL ||
-									nextInst instanceof DCMPG ||
-									nextInst instanceof DCMPL
-					) {
-						handle = handle.getNext();
-						continue;
-					}
-				}
-				if (constantVars.containsKey(varIndex)) {
-					Number value = constantVars.get(varIndex);
-					Instruction replacement;
-					if (value instanceof Integer) {
-						int intVal = value.intValue();
-						if (intVal >= -1 && intVal <= 5) {
-							replacement = new ICONST(intVal);
-						} else if (intVal >= Byte.MIN_VALUE && intVal <= Byte.MAX_VALUE) {
-							replacement = new BIPUSH((byte) intVal);
-						} else if (intVal >= Short.MIN_VALUE && intVal <= Short.MAX_VALUE) {
-							replacement = new SIPUSH((short) intVal);
-						} else {
-							replacement = new LDC(cpgen.addInteger(intVal));
-						}
-					} else if (value instanceof Float) {
-						replacement = new LDC(cpgen.addFloat(value.floatValue()));
-					} else if (value instanceof Long) {
-						replacement = new LDC2_W(cpgen.addLong(value.longValue()));
-					} else if (value instanceof Double) {
-						replacement = new LDC2_W(cpgen.addDouble(value.doubleValue()));
-					} else {
-						handle = handle.getNext();
-						continue;
-					}
-
-					try {
-						InstructionHandle newHandle = il.insert(handle, replacement);
-						redirectTargeters(handle, newHandle);
-						il.delete(handle);
-						handle = newHandle.getNext();
-					} catch (TargetLostException e) {
-						System.err.println("Target lost while replacing constant load: " + e.getMessage());
-						handle = handle.getNext();
-					}
-				} else {
-					handle = handle.getNext();
-				}
-			} else {
-				handle = handle.getNext();
+		metrics.setNanos(System.nanoTime() - start);
+		metrics.setConstantPoolSize(this.original.getConstantPool().getLength(),
+				this.optimized.getConstantPool().getLength());
+		event.end();
+		if (event.shouldCommit()) {
+			event.className = metrics.getClassName();
+			event.methods = metrics.getMethods().size();
+			for (MethodMetrics m : metrics.getMethods()) {
+				event.instructionsBefore += m.getInstructionsBefore();
+				event.instructionsAfter += m.getInstructionsAfter();
 			}
+			event.modified = modified;
+			event.commit();
 		}
 	}
 
-
-	// Track variable assignments and their values
-	private void trackVariableAssignments(InstructionList il, ConstantPoolGen cpgen,
-										  Map<Integer, List<VariableState>> variableStates) {
-		il.setPositions(true);
-
-		// First identify all variable assignments
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			Instruction inst = handle.getInstruction();
-
-			if (!(inst instanceof StoreInstruction)) continue;
-
-			int varIndex = ((StoreInstruction) inst).getIndex();
-			int position = handle.getPosition();
-
-			// Get the instruction that produces the value
-			InstructionHandle prev = handle.getPrev();
-			if (prev == null) continue;
-
-			// Try to determine the value and dependencies
-			Number value = null;
-			Set<Integer> dependencies = new HashSet<>();
-
-			// Handle direct constants
-			if (prev.getInstruction() instanceof ConstantPushInstruction) {
-				value = ((ConstantPushInstruction) prev.getInstruction()).getValue();
-			} else if (prev.getInstruction() instanceof LDC) {
-				Object constValue = ((LDC) prev.getInstruction()).getValue(cpgen);
-				if (constValue instanceof Number) {
-					value = (Number) constValue;
-				}
-			} else if (prev.getInstruction() instanceof LDC2_W) {
-				Object constValue = ((LDC2_W) prev.getInstruction()).getValue(cpgen);
-				if (constValue instanceof Number) {
-					value = (Number) constValue;
-				}
-			}
-			// Handle loading from another variable
-			else if (prev.getInstruction() instanceof LoadInstruction) {
-				int sourceIndex = ((LoadInstruction) prev.getInstruction()).getIndex();
-				dependencies.add(sourceIndex);
-
-				// Try to get the value from the source variable
-				List<VariableState> sourceStates = variableStates.get(sourceIndex);
-				if (sourceStates != null && !sourceStates.isEmpty()) {
-					// Find the most recent state of the source variable
-					VariableState mostRecent = null;
-					for (VariableState state : sourceStates) {
-						if (state.position < position &&
-								(mostRecent == null || state.position > mostRecent.position)) {
-							mostRecent = state;
-						}
-					}
-
-					if (mostRecent != null && mostRecent.value != null) {
-						value = mostRecent.value;
-						dependencies.addAll(mostRecent.dependsOn);
-					}
-				}
-			}
-			else if (prev.getInstruction() instanceof ArithmeticInstruction) {
-				InstructionHandle op1Handle = prev.getPrev();
-				InstructionHandle op2Handle = (op1Handle != null) ? op1Handle.getPrev() : null;
-
-				if (op1Handle != null && op2Handle != null) {
-					Number v_first = null;  // will hold the value from op2Handle (first pushed operand)
-					Number v_second = null; // will hold the value from op1Handle (second pushed operand)
-					Set<Integer> deps_first = new HashSet<>();
-					Set<Integer> deps_second = new HashSet<>();
-
-					if (op2Handle.getInstruction() instanceof LoadInstruction) {
-						int idx = ((LoadInstruction) op2Handle.getInstruction()).getIndex();
-						deps_first.add(idx);
-						List<VariableState> states = variableStates.get(idx);
-						if (states != null && !states.isEmpty()) {
-							VariableState mostRecent = null;
-							for (VariableState state : states) {
-								if (state.position < position &&
-										(mostRecent == null || state.position > mostRecent.position)) {
-									mostRecent = state;
-								}
-							}
-							if (mostRecent != null && mostRecent.value != null) {
-								v_first = mostRecent.value;
-								deps_first.addAll(mostRecent.dependsOn);
-							}
-						}
-					} else if (op2Handle.getInstruction() instanceof ConstantPushInstruction) {
-						v_first = ((ConstantPushInstruction) op2Handle.getInstruction()).getValue();
-					} else if (op2Handle.getInstruction() instanceof LDC) {
-						Object val = ((LDC) op2Handle.getInstruction()).getValue(cpgen);
-						if (val instanceof Number) v_first = (Number) val;
-					} else if (op2Handle.getInstruction() instanceof LDC2_W) {
-						Object val = ((LDC2_W) op2Handle.getInstruction()).getValue(cpgen);
-						if (val instanceof Number) v_first = (Number) val;
-					}
-
-					if (op1Handle.getInstruction() instanceof LoadInstruction) {
-						int idx = ((LoadInstruction) op1Handle.getInstruction()).getIndex();
-						deps_second.add(idx);
-						List<VariableState> states = variableStates.get(idx);
-						if (states != null && !states.isEmpty()) {
-							VariableState mostRecent = null;
-							for (VariableState state : states) {
-								if (state.position < position &&
-										(mostRecent == null || state.position > mostRecent.position)) {
-									mostRecent = state;
-								}
-							}
-							if (mostRecent != null && mostRecent.value != null) {
-								v_second = mostRecent.value;
-								deps_second.addAll(mostRecent.dependsOn);
-							}
-						}
-					} else if (op1Handle.getInstruction() instanceof ConstantPushInstruction) {
-						v_second = ((ConstantPushInstruction) op1Handle.getInstruction()).getValue();
-					} else if (op1Handle.getInstruction() instanceof LDC) {
-						Object val = ((LDC) op1Handle.getInstruction()).getValue(cpgen);
-						if (val instanceof Number) v_second = (Number) val;
-					} else if (op1Handle.getInstruction() instanceof LDC2_W) {
-						Object val = ((LDC2_W) op1Handle.getInstruction()).getValue(cpgen);
-						if (val instanceof Number) v_second = (Number) val;
-					}
-
-					if (v_first != null && v_second != null) {
-						// Note: For subtraction and division the order matters.
-						value = calculateArithmeticResult(v_first, v_second, (ArithmeticInstruction) prev.getInstruction());
-						dependencies.addAll(deps_first);
-						dependencies.addAll(deps_second);
-					}
-				}
-			}
-
-			List<VariableState> states = variableStates.computeIfAbsent(varIndex, k -> new ArrayList<>());
-			states.add(new VariableState(position, value, dependencies));
-		}
+	/**
+	 * The last step of optimize(): ClassGen keeps every constant it was ever given, including the operands
+	 * of folded expressions, so drop the entries the optimised class no longer refers to
+	 */
+	private JavaClass compactConstantPool(JavaClass clazz) throws IOException
+	{
+		byte[] compacted = ConstantPoolCompactor.compact(clazz.getBytes(), minimiseSize);
+		if (compacted == null) return clazz;
+		JavaClass parsed = new ClassParser(new ByteArrayInputStream(compacted), clazz.getFileName()).parse();
+		return minimiseSize ? narrowConstantLoads(parsed) : parsed;
 	}
 
-
-	private boolean replaceVariableLoadsWithDynamicConstants(InstructionList il, ConstantPoolGen cpgen,
-															 Map<Integer, List<VariableState>> variableStates) {
+	/**
+	 * Replace every ldc_w whose entry now has a byte index by an ldc
+	 */
+	private static JavaClass narrowConstantLoads(JavaClass clazz)
+	{
+		ClassGen cgen = new ClassGen(clazz);
+		ConstantPoolGen cpgen = cgen.getConstantPool();
 		boolean changed = false;
-		il.setPositions(true);
-
-		// Map to track instructions that should not be replaced
-		Set<InstructionHandle> skipInstructions = new HashSet<>();
-
-		// First identify instructions that should not be optimized
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			if (isInMethodCall(handle, cpgen)) {
-				// Skip optimizing arguments to method calls
-				InstructionHandle prev = handle.getPrev();
-				if (prev != null) skipInstructions.add(prev);
-
-				InstructionHandle prev2 = prev != null ? prev.getPrev() : null;
-				if (prev2 != null) skipInstructions.add(prev2);
-			}
-		}
-		for (InstructionHandle handle = il.getStart(); handle != null;) {
-			InstructionHandle nextHandle = handle.getNext();
-			if (skipInstructions.contains(handle)) {
-				handle = nextHandle;
-				continue;
-			}
-			Instruction inst = handle.getInstruction();
-
-			if (inst instanceof LoadInstruction) {
-				int varIndex = ((LoadInstruction) inst).getIndex();
-				int position = handle.getPosition();
-				if (nextHandle != null) {
-					Instruction nextInst = nextHandle.getInstruction();
-					if (nextInst instanceof IfInstruction ||
-							nextInst instanceof LCMP ||
-							nextInst instanceof FCMPG ||
-							nextInst instanceof FCMPL ||
-							nextInst instanceof DCMPG ||
-							nextInst instanceof DCMPL) {
-						handle = nextHandle;
-						continue;
-					}
-				}
-				List<VariableState> states = variableStates.get(varIndex);
-				if (states != null && !states.isEmpty()) {
-					VariableState mostRecent = null;
-
-					for (VariableState state : states) {
-						if (state.position < position &&
-								(mostRecent == null || state.position > mostRecent.position)) {
-							mostRecent = state;
-						}
-					}
-
-					if (mostRecent != null && mostRecent.value != null) {
-						// Check if all dependencies are constant at this point
-						boolean allDepsConstant = true;
-
-						for (Integer depIdx : mostRecent.dependsOn) {
-							if (isVariableReassigned(depIdx, mostRecent.position, position, variableStates)) {
-								allDepsConstant = false;
-								break;
-							}
-						}
-
-						if (allDepsConstant) {
-							// Replace with appropriate constant instruction
-							Instruction replacement = createConstantInstruction(mostRecent.value, cpgen);
-
-							try {
-								InstructionHandle newHandle = il.insert(handle, replacement);
-								redirectTargeters(handle, newHandle);
-								il.delete(handle);
-								handle = newHandle;
-								changed = true;
-							} catch (TargetLostException e) {
-								System.err.println("Target lost during variable replacement: " + e.getMessage());
-							}
-						}
-					}
-				}
-			}
-			handle = nextHandle;
-		}
-		return changed;
-	}
-
-
-	private boolean isInMethodCall(InstructionHandle handle, ConstantPoolGen cpgen) {
-		Instruction inst = handle.getInstruction();
-
-		return (inst instanceof InvokeInstruction);
-	}
-
-
-	private Number calculateArithmeticResult(Number v1, Number v2, ArithmeticInstruction inst) {
-		try {
-			if (inst instanceof IADD) return v1.intValue() + v2.intValue();
-			if (inst instanceof ISUB) return v1.intValue() - v2.intValue();
-			if (inst instanceof IMUL) return v1.intValue() * v2.intValue();
-			if (inst instanceof IDIV && v2.intValue() != 0) return v1.intValue() / v2.intValue();
-
-			if (inst instanceof LADD) return v1.longValue() + v2.longValue();
-			if (inst instanceof LSUB) return v1.longValue() - v2.longValue();
-			if (inst instanceof LMUL) return v1.longValue() * v2.longValue();
-			if (inst instanceof LDIV && v2.longValue() != 0) return v1.longValue() / v2.longValue();
-
-			if (inst instanceof FADD) return v1.floatValue() + v2.floatValue();
-			if (inst instanceof FSUB) return v1.floatValue() - v2.floatValue();
-			if (inst instanceof FMUL) return v1.floatValue() * v2.floatValue();
-			if (inst instanceof FDIV && v2.floatValue() != 0) return v1.floatValue() / v2.floatValue();
-
-			if (inst instanceof DADD) return v1.doubleValue() + v2.doubleValue();
-			if (inst instanceof DSUB) return v1.doubleValue() - v2.doubleValue();
-			if (inst instanceof DMUL) return v1.doubleValue() * v2.doubleValue();
-			if (inst instanceof DDIV && v2.doubleValue() != 0) return v1.doubleValue() / v2.doubleValue();
-		} catch (Exception e) {
-			System.err.println("Error in arithmetic calculation: " + e.getMessage());
-		}
-		return null;
-	}
-
-
-	private void dynamic_var_fold(ClassGen cgen, ConstantPoolGen cpgen) {
 		for (Method method : cgen.getMethods()) {
+			if (method.getCode() == null) continue;
 			MethodGen mg = new MethodGen(method, cgen.getClassName(), cpgen);
-			InstructionList il = mg.getInstructionList();
-			if (il == null) continue;
-
-			if (containsPrintStatements(il, cpgen)) {
-				continue;
-			}
-
-			Map<Integer, List<VariableState>> variableStates = new HashMap<>();
-			trackVariableAssignments(il, cpgen, variableStates);
-
-			boolean changed;
-			int maxPasses = 5;
-			int pass = 0;
-
-			do {
-				changed = false;
-
-				if (replaceVariableLoadsWithDynamicConstants(il, cpgen, variableStates)) {
-					changed = true;
-				}
-
-				if (foldDynamicExpressions(il, cpgen, variableStates)) {
-					changed = true;
-				}
-
-				if (changed) {
-					variableStates.clear();
-					trackVariableAssignments(il, cpgen, variableStates);
-					il.setPositions(true);
-				}
-
-				pass++;
-			} while (changed && pass < maxPasses);
-
-			il.setPositions(true);
-			mg.setMaxStack();
-			mg.setMaxLocals();
-
-			Method newMethod = mg.getMethod();
-			cgen.replaceMethod(method, newMethod);
-		}
-	}
-
-
-	// Check if method contains System.out.println calls
-	private boolean containsPrintStatements(InstructionList il, ConstantPoolGen cpgen) {
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			Instruction inst = handle.getInstruction();
-
-			if (inst instanceof INVOKEVIRTUAL) {
-				INVOKEVIRTUAL invoke = (INVOKEVIRTUAL) inst;
-				String methodName = invoke.getMethodName(cpgen);
-				String className = invoke.getClassName(cpgen);
-
-				if (className.equals("java.io.PrintStream") &&
-						(methodName.equals("println") || methodName.equals("print"))) {
-					return true;
+			boolean narrowed = false;
+			for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; handle = handle.getNext()) {
+				Instruction inst = handle.getInstruction();
+				if (inst instanceof LDC_W && ((LDC_W) inst).getIndex() <= 255) {
+					handle.setInstruction(new LDC(((LDC_W) inst).getIndex()));
+					narrowed = true;
 				}
 			}
-		}
-		return false;
-	}
-
-
-	private void identifyVariableScopes(InstructionList il, ConstantPoolGen cpgen,
-										Map<Integer, List<VariableScope>> variableScopeMap) {
-		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
-			Instruction inst = handle.getInstruction();
-
-			if (!(inst instanceof StoreInstruction)) continue;
-
-			int varIndex = ((StoreInstruction) inst).getIndex();
-			int position = handle.getPosition();
-			InstructionHandle prev = handle.getPrev();
-			if (prev == null) continue;
-
-			Number value = extractConstantValue(prev, cpgen);
-			if (value == null) continue;
-
-			List<VariableScope> scopes = variableScopeMap.computeIfAbsent(varIndex, k -> new ArrayList<>());
-
-			if (!scopes.isEmpty()) {
-				scopes.get(scopes.size() - 1).endPosition = position;
-			}
-			scopes.add(new VariableScope(position, value));
-		}
-	}
-
-
-	private Number extractConstantValue(InstructionHandle handle, ConstantPoolGen cpgen) {
-		Instruction inst = handle.getInstruction();
-
-		if (inst instanceof ConstantPushInstruction) {
-			return ((ConstantPushInstruction) inst).getValue();
-		} else if (inst instanceof LDC) {
-			try {
-				Object val = ((LDC) inst).getValue(cpgen);
-				return (val instanceof Number) ? (Number) val : null;
-			} catch (RuntimeException e) {
-				return null;
-			}
-		} else if (inst instanceof LDC2_W) {
-			try {
-				Object val = ((LDC2_W) inst).getValue(cpgen);
-				return (val instanceof Number) ? (Number) val : null;
-			} catch (RuntimeException e) {
-				return null;
-			}
-		}
-
-		if (handle.getPrev() != null && handle.getPrev().getPrev() != null) {
-			InstructionHandle op1 = handle.getPrev().getPrev();
-			InstructionHandle op2 = handle.getPrev();
-			Instruction opInst = handle.getInstruction();
-
-			if (opInst instanceof ArithmeticInstruction) {
-				Number v1 = extractConstantValue(op1, cpgen);
-				Number v2 = extractConstantValue(op2, cpgen);
-
-				if (v1 != null && v2 != null) {
-					return applyArithmetic(v1, v2, (ArithmeticInstruction) opInst);
-				}
-			}
-		}
-
-		return null;
-	}
-
-
-	private boolean isVariableReassigned(int varIndex, int fromPosition, int toPosition,
-										 Map<Integer, List<VariableState>> variableStates) {
-		List<VariableState> states = variableStates.get(varIndex);
-		if (states == null) return false;
-
-		for (VariableState state : states) {
-			if (state.position > fromPosition && state.position < toPosition) {
-				return true;
+			if (narrowed) {
+				cgen.replaceMethod(method, mg.getMethod());
+				changed = true;
 			}
 		}
-		return false;
+		return changed ? cgen.getJavaClass() : clazz;
 	}
 
-
-	private Instruction createConstantInstruction(Number value, ConstantPoolGen cpgen) {
-		if (value instanceof Integer) {
-			int intVal = value.intValue();
-			if (intVal >= -1 && intVal <= 5) {
-				return new ICONST(intVal);
-			} else if (intVal >= Byte.MIN_VALUE && intVal <= Byte.MAX_VALUE) {
-				return new BIPUSH((byte) intVal);
-			} else if (intVal >= Short.MIN_VALUE && intVal <= Short.MAX_VALUE) {
-				return new SIPUSH((short) intVal);
-			} else {
-				return new LDC(cpgen.addInteger(intVal));
-			}
-		} else if (value instanceof Float) {
-			return new LDC(cpgen.addFloat(value.floatValue()));
-		} else if (value instanceof Long) {
-			return new LDC2_W(cpgen.addLong(value.longValue()));
-		} else if (value instanceof Double) {
-			return new LDC2_W(cpgen.addDouble(value.doubleValue()));
+	private void ensureOptimized()
+	{
+		if (this.optimized == null) {
+			this.optimize();
 		}
-		throw new IllegalArgumentException("Unsupported constant type: " + value.getClass().getName());
 	}
 
-
-	private boolean isSpecialReturnPattern(InstructionHandle handle, ConstantPoolGen cpgen) {
-		// Check if we have a pattern that matches the return statement from methodOne:
-		// b + 1234 - a
-		if (handle == null || handle.getNext() == null || handle.getNext().getNext() == null) {
-			return false;
-		}
-		InstructionHandle load1 = handle;
-		InstructionHandle const1 = handle.getNext();
-		InstructionHandle addInst = handle.getNext().getNext();
-
-		if (!(load1.getInstruction() instanceof LoadInstruction) ||
-				!(const1.getInstruction() instanceof LDC) ||
-				!(addInst.getInstruction() instanceof IADD)) {
-			return false;
-		}
-
-		InstructionHandle load2 = addInst.getNext();
-		InstructionHandle subInst = load2 != null ? load2.getNext() : null;
-
-		if (load2 == null || subInst == null ||
-				!(load2.getInstruction() instanceof LoadInstruction) ||
-				!(subInst.getInstruction() instanceof ISUB)) {
-			return false;
+	public void write(String optimisedFilePath) throws IOException
+	{
+		this.ensureOptimized();
+		try (FileOutputStream out = new FileOutputStream(new File(optimisedFilePath))) {
+			this.optimized.dump(out);
 		}
-
-		int var1Idx = ((LoadInstruction)load1.getInstruction()).getIndex();
-		int var2Idx = ((LoadInstruction)load2.getInstruction()).getIndex();
-
-		return var1Idx != var2Idx;
 	}
 
-
-	private boolean foldDynamicExpressions(InstructionList il, ConstantPoolGen cpgen,
-										   Map<Integer, List<VariableState>> variableStates) {
-		boolean changed = false;
-		il.setPositions(true);
-
-		boolean foundReturnExpr = false;
-		int maxIterations = 1000;
-		int iterations = 0;
-
-		for (InstructionHandle handle = il.getStart(); handle != null && iterations < maxIterations;) {
-			iterations++;
-
-			if (handle.getNext() != null && handle.getNext().getNext() != null &&
-					handle.getInstruction() instanceof LoadInstruction &&
-					handle.getNext().getInstruction() instanceof LDC &&
-					handle.getNext().getNext().getInstruction() instanceof IADD) {
-
-				InstructionHandle addHandle = handle.getNext().getNext();
-				if (addHandle.getNext() != null && addHandle.getNext().getNext() != null &&
-						addHandle.getNext().getInstruction() instanceof LoadInstruction &&
-						addHandle.getNext().getNext().getInstruction() instanceof ISUB) {
-
-					foundReturnExpr = true;
-
-					int var1Index = ((LoadInstruction)handle.getInstruction()).getIndex();
-					int var2Index = ((LoadInstruction)addHandle.getNext().getInstruction()).getIndex();
-					Number constVal = null;
-					if (handle.getNext().getInstruction() instanceof LDC) {
-						Object val = ((LDC)handle.getNext().getInstruction()).getValue(cpgen);
-						if (val instanceof Number) constVal = (Number)val;
-					}
-				}
-			}
-
-			// Need at least 3 instructions for a foldable expression
-			if (handle.getNext() == null || handle.getNext().getNext() == null) {
-				handle = handle.getNext();
-				continue;
-			}
-
-			InstructionHandle h1 = handle;
-			InstructionHandle h2 = h1.getNext();
-			InstructionHandle h3 = h2.getNext();
-
-			// We need an arithmetic operation
-			if (!(h3.getInstruction() instanceof ArithmeticInstruction)) {
-				handle = handle.getNext();
-				continue;
-			}
-
-			// Get values for both operands
-			Number v1 = getOperandValue(h1, variableStates, cpgen);
-			Number v2 = getOperandValue(h2, variableStates, cpgen);
-
-			if (v1 == null || v2 == null) {
-				handle = handle.getNext();
-				continue;
-			}
-
-			Number result = calculateArithmeticResult(v1, v2, (ArithmeticInstruction) h3.getInstruction());
-			if (result == null) {
-				handle = handle.getNext();
-				continue;
-			}
-
-			try {
-				Instruction constInstr = createConstantInstruction(result, cpgen);
-				InstructionHandle newHandle = il.insert(h1, constInstr);
-
-				redirectTargeters(h1, newHandle);
-				redirectTargeters(h2, newHandle);
-				redirectTargeters(h3, newHandle);
-
-				InstructionHandle next = h3.getNext();
-				il.delete(h1, h3);
-
-				handle = newHandle.getNext();
-				changed = true;
-
-				if (handle != null && handle.getInstruction() instanceof StoreInstruction) {
-					int varIndex = ((StoreInstruction) handle.getInstruction()).getIndex();
-					List<VariableState> states = variableStates.computeIfAbsent(varIndex, k -> new ArrayList<>());
-					states.add(new VariableState(handle.getPosition(), result, new HashSet<>()));
-					handle = handle.getNext();
-				}
-
-			} catch (TargetLostException e) {
-				System.err.println("Target lost during expression folding: " + e.getMessage());
-				handle = handle.getNext();
-			}
-		}
-
-		if (iterations >= maxIterations) {
-			System.err.println("Warning: Maximum iterations reached in foldDynamicExpressions");
-		}
-
-		return changed;
+	/**
+	 * Optimise the class and dump it to the given stream, which is left open
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		this.ensureOptimized();
+		this.optimized.dump(out);
 	}
 
-
-	private Number getDynamicValue(InstructionHandle handle, int position, ConstantPoolGen cpgen,
-								   Map<Integer, List<VariableScope>> variableScopeMap) {
-		Instruction inst = handle.getInstruction();
-
-		if (inst instanceof ConstantPushInstruction) {
-			return ((ConstantPushInstruction) inst).getValue();
-		} else if (inst instanceof LDC) {
-			try {
-				Object val = ((LDC) inst).getValue(cpgen);
-				return (val instanceof Number) ? (Number) val : null;
-			} catch (RuntimeException e) {
-				return null;
-			}
-		} else if (inst instanceof LDC2_W) {
-			try {
-				Object val = ((LDC2_W) inst).getValue(cpgen);
-				return (val instanceof Number) ? (Number) val : null;
-			} catch (RuntimeException e) {
-				return null;
-			}
-		}
-
-		if (inst instanceof LoadInstruction) {
-			int varIndex = ((LoadInstruction) inst).getIndex();
-			List<VariableScope> scopes = variableScopeMap.get(varIndex);
-
-			if (scopes != null) {
-				for (VariableScope scope : scopes) {
-					if (position >= scope.startPosition && position < scope.endPosition) {
-						return scope.value;
-					}
-				}
-			}
+	/**
+	 * Optimise the class and write it to the given channel, which is left open
+	 */
+	public void write(WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer bytes = ByteBuffer.wrap(this.toByteArray());
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
 		}
-
-		return null;
 	}
 
-
-	private Number getOperandValue(InstructionHandle handle,
-								   Map<Integer, List<VariableState>> variableStates,
-								   ConstantPoolGen cpgen) {
-		Instruction inst = handle.getInstruction();
-
-		if (inst instanceof ConstantPushInstruction) {
-			return ((ConstantPushInstruction) inst).getValue();
-		} else if (inst instanceof LDC) {
-			Object val = ((LDC) inst).getValue(cpgen);
-			return (val instanceof Number) ? (Number) val : null;
-		} else if (inst instanceof LDC2_W) {
-			Object val = ((LDC2_W) inst).getValue(cpgen);
-			return (val instanceof Number) ? (Number) val : null;
-		}
-
-		if (inst instanceof LoadInstruction) {
-			int varIndex = ((LoadInstruction) inst).getIndex();
-			int position = handle.getPosition();
-
-			List<VariableState> states = variableStates.get(varIndex);
-			if (states != null && !states.isEmpty()) {
-				VariableState mostRecent = null;
-
-				for (VariableState state : states) {
-					if (state.position < position &&
-							(mostRecent == null || state.position > mostRecent.position)) {
-						mostRecent = state;
-					}
-				}
-
-				if (mostRecent != null && mostRecent.value != null) {
-					boolean allDepsConstant = true;
-					for (Integer depIdx : mostRecent.dependsOn) {
-						if (isVariableReassigned(depIdx, mostRecent.position, position, variableStates)) {
-							allDepsConstant = false;
-							break;
-						}
-					}
-
-					if (allDepsConstant) {
-						return mostRecent.value;
-					}
-				}
-			}
-		}
-
-		return null;
+	/**
+	 * @return the optimised class file
+	 */
+	public byte[] toByteArray()
+	{
+		this.ensureOptimized();
+		return this.optimized.getBytes();
 	}
 
-
-	public void optimize() {
-		ClassGen cgen = new ClassGen(original);
-		ConstantPoolGen cpgen = cgen.getConstantPool();
-
-		// Basic constant folding optimization
-		for (Method method : cgen.getMethods()) {
-			MethodGen mg = new MethodGen(method, cgen.getClassName(), cpgen);
-			InstructionList il = mg.getInstructionList();
-			if (il == null) continue;
-
-			boolean changed = false;
-			InstructionFinder f = new InstructionFinder(il);
-
-			// Updated pattern to handle both LDC and LDC2_W
-			String pattern = "(LDC|LDC2_W) (LDC|LDC2_W) (IADD|ISUB|IMUL|IDIV|LADD|LSUB|LMUL|LDIV|FADD|FSUB|FMUL|FDIV|DADD|DSUB|DMUL|DDIV)";
-			for (Iterator<?> it = f.search(pattern); it.hasNext();) {
-				InstructionHandle[] match = (InstructionHandle[]) it.next();
-				changed = true;
-			}
-
-			if (changed) {
-				mg.setInstructionList(il);
-				mg.setMaxStack();
-				mg.setMaxLocals();
-				cgen.replaceMethod(method, mg.getMethod());
-			}
-		}
-
-		gen = cgen;
-		this.optimized = gen.getJavaClass();
-
-		try {
-			cgen = new ClassGen(this.optimized);
-			cgen.setMajor(50);
-			cpgen = cgen.getConstantPool();
-
-			constant_var_fold(cgen, cpgen);
-
-			dynamic_var_fold(cgen, cpgen);
-
-			gen = cgen;
-			this.optimized = gen.getJavaClass();
-		} catch (Exception e) {
-			System.err.println("Optimization failed:");
-			e.printStackTrace();
+	/**
+	 * Optimise the class if that has not happened yet and report what the passes did.
+	 * The class file sizes are measured here rather than in optimize(), since that means serialising
+	 * the original class a second time.
+	 */
+	public ClassMetrics getMetrics()
+	{
+		this.ensureOptimized();
+		if (metrics.getBytesBefore() < 0) {
+			metrics.setSize(this.original.getBytes().length, this.optimized.getBytes().length);
 		}
+		return metrics;
 	}
 
-	public void write(String optimisedFilePath)
+	/**
+	 * @return true if optimize() changed anything in the class file, the constant pool and debug
+	 * information included, and not only the code of its methods
+	 */
+	public boolean isModified()
 	{
-		this.optimize();
-		try {
-			FileOutputStream out = new FileOutputStream(new File(optimisedFilePath));
-			this.optimized.dump(out);
-		} catch (FileNotFoundException e) {
-			// Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// Auto-generated catch block
-			e.printStackTrace();
-		}
+		if (this.optimized == null || this.optimized == this.original) return false;
+		return !Arrays.equals(this.original.getBytes(), this.optimized.getBytes());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,526 @@
+package comp0012.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.util.ByteSequence;
+
+/**
+ * Drops the constant pool entries of a class file that nothing refers to any more, e.g. the operands
+ * of folded expressions that ClassGen keeps in the pool. Works on the serialised class rather than on
+ * a ClassGen, which holds class annotations by pool index and cannot be given a new pool.
+ * Surviving entries keep their order, so every index only gets smaller and an ldc operand still fits
+ * in its byte; the rest of the class keeps its layout and only its pool indices are rewritten.
+ * Optionally the entries loaded by ldc and ldc_w move to the front, most loaded first, so that the
+ * ldc_w instructions can be narrowed to ldc afterwards.
+ */
+final class ConstantPoolCompactor {
+
+    private final byte[] in;
+    private final boolean loadsFirst;
+    private int pos;
+    private int[] offsets;
+    private byte[] tags;
+    private final BitSet used = new BitSet();
+    /** Offsets of the pool indices outside the pool, with a negative offset for a one byte ldc operand */
+    private final List<Integer> references = new ArrayList<>();
+    /** Number of ldc and ldc_w instructions loading each entry */
+    private int[] loads;
+    /** Entries loaded by an ldc, which must stay below index 256 */
+    private final BitSet narrowLoads = new BitSet();
+
+    private ConstantPoolCompactor(byte[] classFile, boolean loadsFirst) {
+        this.in = classFile;
+        this.loadsFirst = loadsFirst;
+    }
+
+    /**
+     * @return the class file with the unused entries removed, or null if all of them are used or the
+     * class has an attribute that may refer to the pool in a way this does not know
+     */
+    static byte[] compact(byte[] classFile) {
+        return compact(classFile, false);
+    }
+
+    /**
+     * @param loadsFirst move the entries loaded by ldc and ldc_w to the lowest indices, most loaded first
+     * @return the class file with the unused entries removed, or null if that would not change it
+     */
+    static byte[] compact(byte[] classFile, boolean loadsFirst) {
+        try {
+            return new ConstantPoolCompactor(classFile, loadsFirst).run();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private byte[] run() throws IOException {
+        pos = 8;
+        if (!readPool()) return null;
+        int poolEnd = pos;
+        pos += 2;
+        reference(2);
+        reference(2);
+        int interfaces = u2();
+        for (int i = 0; i < interfaces; i++) {
+            reference(2);
+        }
+        for (int members = 0; members < 2; members++) {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 2;
+                reference(2);
+                reference(2);
+                if (!attributes()) return null;
+            }
+        }
+        if (!attributes() || pos != in.length) return null;
+
+        // entries used only by other entries, e.g. the Utf8 of a Class
+        for (int i = 1; i < offsets.length; i++) {
+            if (used.get(i)) markOperands(i);
+        }
+        List<Integer> order = order();
+        int[] renumbered = new int[offsets.length];
+        int next = 1;
+        boolean moved = false;
+        for (int i : order) {
+            moved |= next != i;
+            renumbered[i] = next;
+            next += tags[i] == Constants.CONSTANT_Long || tags[i] == Constants.CONSTANT_Double ? 2 : 1;
+        }
+        if (!moved && next == offsets.length) return null;
+
+        byte[] out = new byte[in.length];
+        System.arraycopy(in, 0, out, 0, 8);
+        out[8] = (byte) (next >> 8);
+        out[9] = (byte) next;
+        int outPos = 10;
+        for (int i : order) {
+            int start = offsets[i];
+            int length = entryEnd(i) - start;
+            System.arraycopy(in, start, out, outPos, length);
+            remapOperands(out, outPos, tags[i], renumbered);
+            outPos += length;
+        }
+        int shift = poolEnd - outPos;
+        System.arraycopy(in, poolEnd, out, outPos, in.length - poolEnd);
+        for (int reference : references) {
+            if (reference < 0) {
+                int at = -reference - shift;
+                out[at] = (byte) renumbered[in[-reference] & 0xff];
+            } else {
+                int at = reference - shift;
+                put2(out, at, renumbered[get2(in, reference)]);
+            }
+        }
+        byte[] result = new byte[in.length - shift];
+        System.arraycopy(out, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * @return the used entries in their new order
+     */
+    private List<Integer> order() {
+        List<Integer> order = new ArrayList<>(used.cardinality());
+        for (int i = used.nextSetBit(1); i >= 0; i = used.nextSetBit(i + 1)) {
+            order.add(i);
+        }
+        if (!loadsFirst) return order;
+
+        List<Integer> loaded = new ArrayList<>();
+        for (int i : order) {
+            if (loads[i] > 0) loaded.add(i);
+        }
+        // more than 255 loaded entries cannot all get a byte index, so those ldc already uses come first
+        boolean keepNarrow = loaded.size() > 255;
+        loaded.sort((a, b) -> {
+            if (keepNarrow && narrowLoads.get(a) != narrowLoads.get(b)) return narrowLoads.get(a) ? -1 : 1;
+            return loads[a] != loads[b] ? loads[b] - loads[a] : a - b;
+        });
+        order.removeIf(i -> loads[i] > 0);
+        loaded.addAll(order);
+        return loaded;
+    }
+
+    /**
+     * Record where every entry starts; long and double entries take two indices
+     * @return false for entries that only appear in modules
+     */
+    private boolean readPool() {
+        int count = u2();
+        offsets = new int[count];
+        tags = new byte[count];
+        loads = new int[count];
+        for (int i = 1; i < count; i++) {
+            offsets[i] = pos;
+            tags[i] = in[pos];
+            pos = entryEnd(i);
+            if (pos < 0) return false;
+            if (tags[i] == Constants.CONSTANT_Long || tags[i] == Constants.CONSTANT_Double) {
+                i++;
+            }
+        }
+        return true;
+    }
+
+    private int entryEnd(int index) {
+        int start = offsets[index];
+        switch (tags[index]) {
+            case Constants.CONSTANT_Utf8:
+                return start + 3 + get2(in, start + 1);
+            case Constants.CONSTANT_Class:
+            case Constants.CONSTANT_String:
+            case Constants.CONSTANT_MethodType:
+                return start + 3;
+            case Constants.CONSTANT_MethodHandle:
+                return start + 4;
+            case Constants.CONSTANT_Integer:
+            case Constants.CONSTANT_Float:
+            case Constants.CONSTANT_Fieldref:
+            case Constants.CONSTANT_Methodref:
+            case Constants.CONSTANT_InterfaceMethodref:
+            case Constants.CONSTANT_NameAndType:
+            case Constants.CONSTANT_InvokeDynamic:
+                return start + 5;
+            case Constants.CONSTANT_Long:
+            case Constants.CONSTANT_Double:
+                return start + 9;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Mark the entries an entry refers to, and the entries those refer to
+     */
+    private void markOperands(int index) {
+        int start = offsets[index];
+        switch (tags[index]) {
+            case Constants.CONSTANT_Class:
+            case Constants.CONSTANT_String:
+            case Constants.CONSTANT_MethodType:
+                used.set(get2(in, start + 1));
+                break;
+            case Constants.CONSTANT_MethodHandle:
+                mark(get2(in, start + 2));
+                break;
+            case Constants.CONSTANT_Fieldref:
+            case Constants.CONSTANT_Methodref:
+            case Constants.CONSTANT_InterfaceMethodref:
+                mark(get2(in, start + 1));
+                mark(get2(in, start + 3));
+                break;
+            case Constants.CONSTANT_NameAndType:
+                used.set(get2(in, start + 1));
+                used.set(get2(in, start + 3));
+                break;
+            case Constants.CONSTANT_InvokeDynamic:
+                // the first operand indexes the BootstrapMethods attribute
+                mark(get2(in, start + 3));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void mark(int index) {
+        if (!used.get(index)) {
+            used.set(index);
+            markOperands(index);
+        }
+    }
+
+    private static void remapOperands(byte[] out, int at, byte tag, int[] renumbered) {
+        switch (tag) {
+            case Constants.CONSTANT_Class:
+            case Constants.CONSTANT_String:
+            case Constants.CONSTANT_MethodType:
+                put2(out, at + 1, renumbered[get2(out, at + 1)]);
+                break;
+            case Constants.CONSTANT_MethodHandle:
+                put2(out, at + 2, renumbered[get2(out, at + 2)]);
+                break;
+            case Constants.CONSTANT_Fieldref:
+            case Constants.CONSTANT_Methodref:
+            case Constants.CONSTANT_InterfaceMethodref:
+            case Constants.CONSTANT_NameAndType:
+                put2(out, at + 1, renumbered[get2(out, at + 1)]);
+                put2(out, at + 3, renumbered[get2(out, at + 3)]);
+                break;
+            case Constants.CONSTANT_InvokeDynamic:
+                put2(out, at + 3, renumbered[get2(out, at + 3)]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Record the pool index of the given width at the current position, where 0 means no entry
+     */
+    private void reference(int width) {
+        int index = width == 1 ? in[pos] & 0xff : get2(in, pos);
+        if (index != 0) {
+            if (index >= offsets.length || offsets[index] == 0) {
+                throw new IllegalArgumentException("Bad constant pool index " + index + " at " + pos);
+            }
+            used.set(index);
+            references.add(width == 1 ? -pos : pos);
+        }
+        pos += width;
+    }
+
+    /**
+     * @return false if one of the attributes is not known
+     */
+    private boolean attributes() throws IOException {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            int nameIndex = get2(in, pos);
+            reference(2);
+            int length = u4();
+            int end = pos + length;
+            if (tags[nameIndex] != Constants.CONSTANT_Utf8 || !attribute(utf8(nameIndex), end)) return false;
+            if (pos != end) {
+                throw new IllegalArgumentException("Attribute length mismatch at " + pos);
+            }
+        }
+        return true;
+    }
+
+    private boolean attribute(String name, int end) throws IOException {
+        switch (name) {
+            case "ConstantValue":
+            case "Signature":
+            case "SourceFile":
+            case "NestHost":
+                reference(2);
+                return true;
+            case "Synthetic":
+            case "Deprecated":
+            case "SourceDebugExtension":
+            case "LineNumberTable":
+                pos = end;
+                return true;
+            case "Exceptions":
+            case "NestMembers":
+                for (int n = u2(); n > 0; n--) reference(2);
+                return true;
+            case "InnerClasses":
+                for (int n = u2(); n > 0; n--) {
+                    reference(2);
+                    reference(2);
+                    reference(2);
+                    pos += 2;
+                }
+                return true;
+            case "EnclosingMethod":
+                reference(2);
+                reference(2);
+                return true;
+            case "LocalVariableTable":
+            case "LocalVariableTypeTable":
+                for (int n = u2(); n > 0; n--) {
+                    pos += 4;
+                    reference(2);
+                    reference(2);
+                    pos += 2;
+                }
+                return true;
+            case "MethodParameters":
+                for (int n = in[pos++] & 0xff; n > 0; n--) {
+                    reference(2);
+                    pos += 2;
+                }
+                return true;
+            case "BootstrapMethods":
+                for (int n = u2(); n > 0; n--) {
+                    reference(2);
+                    for (int args = u2(); args > 0; args--) reference(2);
+                }
+                return true;
+            case "RuntimeVisibleAnnotations":
+            case "RuntimeInvisibleAnnotations":
+                for (int n = u2(); n > 0; n--) annotation();
+                return true;
+            case "RuntimeVisibleParameterAnnotations":
+            case "RuntimeInvisibleParameterAnnotations":
+                for (int parameters = in[pos++] & 0xff; parameters > 0; parameters--) {
+                    for (int n = u2(); n > 0; n--) annotation();
+                }
+                return true;
+            case "RuntimeVisibleTypeAnnotations":
+            case "RuntimeInvisibleTypeAnnotations":
+                for (int n = u2(); n > 0; n--) typeAnnotation();
+                return true;
+            case "AnnotationDefault":
+                elementValue();
+                return true;
+            case "StackMapTable":
+                stackMapTable();
+                return true;
+            case "Code":
+                return code();
+            default:
+                return false;
+        }
+    }
+
+    private boolean code() throws IOException {
+        pos += 4;
+        int length = u4();
+        int start = pos;
+        try (ByteSequence bytes = new ByteSequence(Arrays.copyOfRange(in, start, start + length))) {
+            while (bytes.available() > 0) {
+                int offset = bytes.getIndex();
+                Instruction inst = Instruction.readInstruction(bytes);
+                if (inst instanceof CPInstruction) {
+                    pos = start + offset + 1;
+                    if (inst.getOpcode() == Constants.LDC) {
+                        narrowLoads.set(in[pos] & 0xff);
+                        loads[in[pos] & 0xff]++;
+                        reference(1);
+                    } else {
+                        if (inst.getOpcode() == Constants.LDC_W) loads[get2(in, pos)]++;
+                        reference(2);
+                    }
+                }
+            }
+        }
+        pos = start + length;
+        for (int n = u2(); n > 0; n--) {
+            pos += 6;
+            reference(2);
+        }
+        return attributes();
+    }
+
+    private void stackMapTable() {
+        for (int n = u2(); n > 0; n--) {
+            int frameType = in[pos++] & 0xff;
+            if (frameType < 64) {
+                continue;
+            } else if (frameType < 128) {
+                verificationType();
+            } else if (frameType == 247) {
+                pos += 2;
+                verificationType();
+            } else if (frameType >= 248 && frameType <= 251) {
+                pos += 2;
+            } else if (frameType >= 252 && frameType <= 254) {
+                pos += 2;
+                for (int i = frameType - 251; i > 0; i--) verificationType();
+            } else if (frameType == 255) {
+                pos += 2;
+                for (int i = u2(); i > 0; i--) verificationType();
+                for (int i = u2(); i > 0; i--) verificationType();
+            } else {
+                throw new IllegalArgumentException("Bad stack map frame type " + frameType);
+            }
+        }
+    }
+
+    private void verificationType() {
+        int tag = in[pos++] & 0xff;
+        if (tag == Constants.ITEM_Object) {
+            reference(2);
+        } else if (tag == Constants.ITEM_NewObject) {
+            pos += 2;
+        }
+    }
+
+    private void annotation() {
+        reference(2);
+        for (int n = u2(); n > 0; n--) {
+            reference(2);
+            elementValue();
+        }
+    }
+
+    private void typeAnnotation() {
+        int target = in[pos++] & 0xff;
+        switch (target) {
+            case 0x00: case 0x01: case 0x16:
+                pos += 1;
+                break;
+            case 0x10: case 0x17: case 0x42: case 0x43: case 0x44: case 0x45: case 0x46:
+                pos += 2;
+                break;
+            case 0x11: case 0x12:
+                pos += 2;
+                break;
+            case 0x13: case 0x14: case 0x15:
+                break;
+            case 0x40: case 0x41:
+                int ranges = u2();
+                pos += 6 * ranges;
+                break;
+            case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B:
+                pos += 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Bad type annotation target " + target);
+        }
+        pos += 2 * (in[pos] & 0xff) + 1;
+        annotation();
+    }
+
+    private void elementValue() {
+        char tag = (char) in[pos++];
+        switch (tag) {
+            case 'e':
+                reference(2);
+                reference(2);
+                break;
+            case '@':
+                annotation();
+                break;
+            case '[':
+                for (int n = u2(); n > 0; n--) elementValue();
+                break;
+            default:
+                // constants and class literals
+                reference(2);
+                break;
+        }
+    }
+
+    private String utf8(int index) throws IOException {
+        int start = offsets[index];
+        int length = get2(in, start + 1);
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in, start + 1, length + 2))) {
+            return data.readUTF();
+        }
+    }
+
+    private int u2() {
+        int value = get2(in, pos);
+        pos += 2;
+        return value;
+    }
+
+    private int u4() {
+        int value = get2(in, pos) << 16 | get2(in, pos + 2);
+        pos += 4;
+        return value;
+    }
+
+    private static int get2(byte[] bytes, int at) {
+        return (bytes[at] & 0xff) << 8 | bytes[at + 1] & 0xff;
+    }
+
+    private static void put2(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >> 8);
+        bytes[at + 1] = (byte) value;
+    }
+}
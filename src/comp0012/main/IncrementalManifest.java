@@ -0,0 +1,151 @@
+package comp0012.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Manifest kept in the output root by the incremental mode.
+ * One line per class: input hash, optimiser version, output-affecting options and the path relative to the root,
+ * separated by tabs. A class can be skipped when all three match and its output file still exists.
+ */
+class IncrementalManifest {
+
+    static final String FILE_NAME = ".optimiser-manifest";
+
+    private static final String HEADER = "# sha-256\tversion\toptions\tpath";
+
+    private static class Record {
+        final String hash;
+        final String version;
+        final String options;
+
+        Record(String hash, String version, String options) {
+            this.hash = hash;
+            this.version = version;
+            this.options = options;
+        }
+    }
+
+    private final Path outputRoot;
+    private final Map<String, Record> previous;
+    private final ConcurrentMap<String, Record> current = new ConcurrentSkipListMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private IncrementalManifest(Path outputRoot, Map<String, Record> previous) {
+        this.outputRoot = outputRoot;
+        this.previous = previous;
+    }
+
+    /**
+     * Read the manifest left by the previous run, if there is one
+     */
+    static IncrementalManifest load(Path outputRoot) throws IOException {
+        Map<String, Record> records = new HashMap<>();
+        Path file = outputRoot.resolve(FILE_NAME);
+        if (Files.isRegularFile(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length != 4) continue;
+                    records.put(fields[3], new Record(fields[0], fields[1], fields[2]));
+                }
+            }
+        }
+        return new IncrementalManifest(outputRoot, records);
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    static String key(Path relative) {
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Mark a class as present in this run and check whether its previous output can be reused.
+     * An up-to-date class is carried over into the new manifest.
+     */
+    boolean isUpToDate(String key, String hash, String version, String options) {
+        seen.add(key);
+        Record old = previous.get(key);
+        if (old == null || !old.hash.equals(hash) || !old.version.equals(version) || !old.options.equals(options)) {
+            return false;
+        }
+        if (!Files.isRegularFile(outputRoot.resolve(key))) {
+            return false;
+        }
+        current.put(key, old);
+        return true;
+    }
+
+    /**
+     * Record a class whose output was written successfully in this run
+     */
+    void record(String key, String hash, String version, String options) {
+        current.put(key, new Record(hash, version, options));
+    }
+
+    /**
+     * Delete the outputs of classes that were in the previous manifest but no longer exist in the input
+     * @return number of files removed
+     */
+    int removeStale() throws IOException {
+        int removed = 0;
+        for (String key : previous.keySet()) {
+            if (seen.contains(key)) continue;
+            if (Files.deleteIfExists(outputRoot.resolve(key))) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    void save() throws IOException {
+        Path file = outputRoot.resolve(FILE_NAME);
+        Path tmp = outputRoot.resolve(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Record> e : current.entrySet()) {
+                Record r = e.getValue();
+                writer.write(r.hash + "\t" + r.version + "\t" + r.options + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
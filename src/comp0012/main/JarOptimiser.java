@@ -0,0 +1,310 @@
+package comp0012.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optimises the classes inside a jar without unpacking it.
+ * Entries are read straight from the archive's central directory; anything that is not a class file,
+ * and every class the optimiser leaves untouched, is copied through as raw compressed bytes.
+ * Only classes whose class file changed are inflated, rewritten and deflated again.
+ * ZIP64 archives are not supported.
+ */
+class JarOptimiser {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /** One central directory record, kept as raw bytes so it can be written back almost verbatim */
+    private static class Entry {
+        final ByteBuffer central;
+        final String name;
+
+        Entry(ByteBuffer central) {
+            this.central = central;
+            int nameLength = central.getShort(28) & 0xffff;
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer dup = central.duplicate();
+            dup.position(CENTRAL_HEADER_SIZE);
+            dup.get(nameBytes);
+            this.name = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+
+        int flags() { return central.getShort(8) & 0xffff; }
+        int method() { return central.getShort(10) & 0xffff; }
+        long compressedSize() { return central.getInt(20) & 0xffffffffL; }
+        long size() { return central.getInt(24) & 0xffffffffL; }
+        long localOffset() { return central.getInt(42) & 0xffffffffL; }
+    }
+
+    private final Path input;
+    private final Path output;
+    private final ClassOptimiser.Default optimiser;
+    private final MetricsReport report;
+
+    private int classes = 0;
+    private int rewritten = 0;
+
+    /**
+     * @param report receives the metrics of every class entry, may be null
+     */
+    JarOptimiser(Path input, Path output, ClassOptimiser.Default optimiser, MetricsReport report) {
+        this.input = input;
+        this.output = output;
+        this.optimiser = optimiser;
+        this.report = report;
+    }
+
+    /** @return number of class entries passed through the optimiser */
+    int classes() {
+        return classes;
+    }
+
+    /** @return number of class entries whose bytecode changed */
+    int rewritten() {
+        return rewritten;
+    }
+
+    void run() throws IOException {
+        try (FileChannel in = new RandomAccessFile(input.toFile(), "r").getChannel();
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer end = readEndOfCentralDirectory(in);
+            List<Entry> entries = readCentralDirectory(in, end);
+
+            List<ByteBuffer> central = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                long offset = out.position();
+                ByteBuffer record = isClass(entry) ? optimiseEntry(in, out, entry) : null;
+                if (record == null) {
+                    copyRaw(in, out, entry);
+                    record = entry.central.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                }
+                record.putInt(42, (int) checkOffset(offset));
+                central.add(record);
+            }
+
+            long centralOffset = out.position();
+            for (ByteBuffer record : central) {
+                record.position(0);
+                writeFully(out, record);
+            }
+            long centralSize = out.position() - centralOffset;
+
+            ByteBuffer newEnd = end.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            newEnd.putShort(4, (short) 0);
+            newEnd.putShort(6, (short) 0);
+            newEnd.putShort(8, (short) central.size());
+            newEnd.putShort(10, (short) central.size());
+            newEnd.putInt(12, (int) checkOffset(centralSize));
+            newEnd.putInt(16, (int) checkOffset(centralOffset));
+            newEnd.position(0);
+            writeFully(out, newEnd);
+        }
+    }
+
+    private static boolean isClass(Entry entry) {
+        return Main.isOptimisable(entry.name)
+                && (entry.method() == STORED || entry.method() == DEFLATED);
+    }
+
+    /**
+     * Run one class through the optimiser.
+     * @return the central directory record for the rewritten entry, or null if the entry should be copied raw
+     */
+    private ByteBuffer optimiseEntry(FileChannel in, FileChannel out, Entry entry) throws IOException {
+        classes++;
+        byte[] optimised;
+        try (InputStream data = openEntry(in, entry)) {
+            ConstantFolder cf = new ConstantFolder(data, entry.name);
+            optimiser.configure(cf);
+            optimised = cf.toByteArray();
+            optimiser.collect(cf);
+            if (report != null) report.add(optimiser);
+            if (!cf.isModified()) return null;
+        } catch (Exception e) {
+            System.err.println("Failed to optimise " + entry.name + ", copying it unchanged: " + e);
+            return null;
+        }
+        rewritten++;
+
+        CRC32 crc = new CRC32();
+        crc.update(optimised, 0, optimised.length);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(optimised.length);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (OutputStream deflating = new DeflaterOutputStream(compressed, deflater)) {
+            deflating.write(optimised);
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer record = entry.central.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int flags = entry.flags() & ~FLAG_DATA_DESCRIPTOR;
+        record.putShort(6, (short) Math.max(20, record.getShort(6) & 0xffff));
+        record.putShort(8, (short) flags);
+        record.putShort(10, (short) DEFLATED);
+        record.putInt(16, (int) crc.getValue());
+        record.putInt(20, compressed.size());
+        record.putInt(24, optimised.length);
+
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER);
+        local.putShort(record.getShort(6));
+        local.putShort((short) flags);
+        local.putShort((short) DEFLATED);
+        local.putShort(record.getShort(12));
+        local.putShort(record.getShort(14));
+        local.putInt((int) crc.getValue());
+        local.putInt(compressed.size());
+        local.putInt(optimised.length);
+        local.putShort((short) name.length);
+        local.putShort((short) 0);
+        local.put(name);
+        local.flip();
+        writeFully(out, local);
+        writeFully(out, ByteBuffer.wrap(compressed.toByteArray()));
+        return record;
+    }
+
+    private InputStream openEntry(FileChannel in, Entry entry) throws IOException {
+        long dataStart = dataOffset(in, entry);
+        ByteBuffer raw = ByteBuffer.allocate((int) entry.compressedSize());
+        readFully(in, raw, dataStart);
+        InputStream stream = new ByteArrayInputStream(raw.array());
+        if (entry.method() == DEFLATED) {
+            stream = new InflaterInputStream(stream, new Inflater(true));
+        }
+        return stream;
+    }
+
+    /**
+     * Copy the local header, the compressed data and any data descriptor of an entry byte for byte
+     */
+    private void copyRaw(FileChannel in, FileChannel out, Entry entry) throws IOException {
+        long start = entry.localOffset();
+        long length = dataOffset(in, entry) - start + entry.compressedSize();
+        if ((entry.flags() & FLAG_DATA_DESCRIPTOR) != 0) {
+            ByteBuffer signature = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(in, signature, start + length);
+            length += signature.getInt(0) == DATA_DESCRIPTOR ? 16 : 12;
+        }
+        long copied = 0;
+        while (copied < length) {
+            copied += in.transferTo(start + copied, length - copied, out);
+        }
+    }
+
+    private static long dataOffset(FileChannel in, Entry entry) throws IOException {
+        ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, local, entry.localOffset());
+        if (local.getInt(0) != LOCAL_HEADER) {
+            throw new IOException("Bad local header for " + entry.name);
+        }
+        return entry.localOffset() + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+    }
+
+    private static ByteBuffer readEndOfCentralDirectory(FileChannel in) throws IOException {
+        long size = in.size();
+        int window = (int) Math.min(size, END_SIZE + 0xffff);
+        ByteBuffer tail = ByteBuffer.allocate(window).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, tail, size - window);
+        for (int i = window - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIR
+                    && i + END_SIZE + (tail.getShort(i + 20) & 0xffff) == window) {
+                ByteBuffer end = ByteBuffer.allocate(window - i).order(ByteOrder.LITTLE_ENDIAN);
+                tail.position(i);
+                end.put(tail);
+                end.flip();
+                return end;
+            }
+        }
+        throw new IOException("Not a zip file: no end of central directory record");
+    }
+
+    private static List<Entry> readCentralDirectory(FileChannel in, ByteBuffer end) throws IOException {
+        int count = end.getShort(10) & 0xffff;
+        long size = end.getInt(12) & 0xffffffffL;
+        long offset = end.getInt(16) & 0xffffffffL;
+        if (count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+
+        ByteBuffer directory = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, directory, offset);
+        List<Entry> entries = new ArrayList<>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(pos) != CENTRAL_HEADER) {
+                throw new IOException("Corrupt central directory at entry " + i);
+            }
+            int length = CENTRAL_HEADER_SIZE + (directory.getShort(pos + 28) & 0xffff)
+                    + (directory.getShort(pos + 30) & 0xffff) + (directory.getShort(pos + 32) & 0xffff);
+            ByteBuffer record = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            directory.limit(pos + length).position(pos);
+            record.put(directory);
+            directory.limit(directory.capacity());
+            record.flip();
+            Entry entry = new Entry(record);
+            if (entry.compressedSize() == 0xffffffffL || entry.localOffset() == 0xffffffffL) {
+                throw new IOException("ZIP64 archives are not supported");
+            }
+            entries.add(entry);
+            pos += length;
+        }
+        return entries;
+    }
+
+    private static long checkOffset(long value) throws IOException {
+        if (value >= 0xffffffffL) {
+            throw new IOException("Output jar needs ZIP64, which is not supported");
+        }
+        return value;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Unexpected end of zip file");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    static boolean isJar(Path path) {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString();
+        return (name.endsWith(".jar") || name.endsWith(".zip")) && Files.isRegularFile(path);
+    }
+}
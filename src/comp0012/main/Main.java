@@ -1,13 +1,18 @@
 package comp0012.main;
 
+import comp0012.main.passes.PassManager;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * COMP0012 courswork 2
@@ -16,19 +21,50 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class Main extends SimpleFileVisitor<Path> {
 
-    @Option(name="-in",required=true, usage="Root directory of the input classfiles")
+    @Option(name="-in",required=true, usage="Root directory of the input classfiles, or a jar file")
     private String inputRoot;
 
-    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored")
+    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored, or the jar to write")
     private String outputRoot;
 
+    @Option(name="-threads", usage="Number of worker threads (1 optimises on the directory walk thread)")
+    private int threads = 1;
+
+    @Option(name="-queue", usage="Maximum number of classes waiting for a worker in parallel mode")
+    private int queueCapacity = 256;
+
+    @Option(name="-incremental", usage="Skip classes whose input and options are unchanged since the last run into -out")
+    private boolean incremental = false;
+
+    @Option(name="-passes", usage="Comma separated optimisation pipeline, e.g. constfold,dynfold,sccp")
+    private String passes = PassManager.DEFAULT_PIPELINE;
+
+    @Option(name="-size", usage="Minimise class file size: move the constants loaded by ldc to the lowest pool indices")
+    private boolean minimiseSize = false;
+
+    @Option(name="-report", usage="Write per-class, per-method and per-pass optimisation metrics to this JSON file")
+    private String reportFile = null;
+
+    private ParallelOptimiser pool = null;
+    private ClassOptimiser.Default optimiser = null;
+    private IncrementalManifest manifest = null;
+    private final MetricsReport report = new MetricsReport();
+    private ProgramCollector program = null;
+    private URLClassLoader inputLoader = null;
+    private String outputOptions = null;
+    private int optimised = 0;
+    private int skipped = 0;
+    private int removed = 0;
+    private int failed = 0;
+
     private void parseArguments(String args[])
     {
         CmdLineParser parser = new CmdLineParser(this);
         parser.setUsageWidth(80);
         try{
             parser.parseArgument(args);
-        } catch (CmdLineException e) {
+            new PassManager(passes);
+        } catch (CmdLineException | IllegalArgumentException e) {
             System.err.println(e.getMessage());
             System.err.println("java BatchExperiment inputFolder outputFolder");
             parser.printUsage(System.err);
@@ -41,7 +77,126 @@ public class Main extends SimpleFileVisitor<Path> {
 	System.out.println("Running COMP207p courswork-2");
         Main main = new Main();
         main.parseArguments(args);
-        Files.walkFileTree(Paths.get(main.inputRoot), main);
+        main.run();
+    }
+
+    /**
+     * Options handed to every ClassOptimiser, including the ones in parallel workers
+     */
+    private Map<String, String> optimiserOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put(ClassOptimiser.PASSES, passes);
+        options.put(ClassOptimiser.SIZE, Boolean.toString(minimiseSize));
+        options.put(ClassOptimiser.METRICS, Boolean.toString(reportFile != null));
+        return options;
+    }
+
+    /**
+     * Configure an optimiser, either Main's own or a parallel worker's
+     */
+    private void setUp(ClassOptimiser classOptimiser) {
+        classOptimiser.configure(optimiserOptions());
+        classOptimiser.setStaticConstants(program.staticConstants());
+        classOptimiser.setPureMethods(program.pureMethods(), inputLoader);
+        classOptimiser.setInlinableMethods(program.inlinableMethods());
+    }
+
+    private void run() throws IOException {
+        long start = System.nanoTime();
+        program = new PassManager(passes).usesProgram()
+                ? ProgramCollector.collect(Paths.get(inputRoot), threads) : ProgramCollector.empty();
+        // the purecall pass runs the @Pure methods of the input in the optimiser, the inline pass reads their code
+        inputLoader = new URLClassLoader(new URL[] { Paths.get(inputRoot).toUri().toURL() },
+                Main.class.getClassLoader());
+        try {
+            optimiseAll(start);
+        } finally {
+            inputLoader.close();
+        }
+    }
+
+    private void optimiseAll(long start) throws IOException {
+        optimiser = new ClassOptimiser.Default();
+        setUp(optimiser);
+        if (JarOptimiser.isJar(Paths.get(inputRoot))) {
+            if (threads > 1 || incremental) {
+                System.err.println("-threads and -incremental are not supported for jar input, optimising on one thread");
+                threads = 1;
+            }
+            JarOptimiser jar = new JarOptimiser(Paths.get(inputRoot), Paths.get(outputRoot), optimiser, report);
+            jar.run();
+            optimised = jar.classes();
+            finish(System.nanoTime() - start);
+            System.out.println(jar.rewritten() + " of " + jar.classes() + " classes changed, all other entries copied unchanged");
+            return;
+        }
+        if (incremental) {
+            Files.createDirectories(Paths.get(outputRoot));
+            manifest = IncrementalManifest.load(Paths.get(outputRoot));
+            outputOptions = outputOptions();
+        }
+        if (threads > 1) {
+            pool = new ParallelOptimiser(threads, Math.max(1, queueCapacity), this::setUp, report);
+        }
+        try {
+            Files.walkFileTree(Paths.get(inputRoot), this);
+        } finally {
+            if (pool != null) {
+                try {
+                    optimised = pool.finish();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for workers", e);
+                }
+            }
+        }
+        if (manifest != null) {
+            removed = manifest.removeStale();
+            manifest.save();
+        }
+        finish(System.nanoTime() - start);
+    }
+
+    private void finish(long elapsedNanos) throws IOException {
+        if (reportFile != null) {
+            report.write(Paths.get(reportFile), elapsedNanos, threads);
+        }
+        printSummary(elapsedNanos);
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Optimised %d classes in %.3f s (%.1f classes/sec, %d thread%s)%n",
+                optimised, seconds, seconds > 0 ? optimised / seconds : 0.0, threads, threads == 1 ? "" : "s");
+        System.out.println("Constant pool entries: " + report.total("poolBefore") + " before, "
+                + report.total("poolAfter") + " after");
+        if (manifest != null) {
+            System.out.println(skipped + " classes up to date, " + removed + " stale outputs removed");
+        }
+        if (pool != null) {
+            failed += pool.failures();
+        }
+        if (failed > 0) {
+            System.err.println(failed + " classes could not be optimised");
+        }
+    }
+
+    /**
+     * Options that change the generated bytecode, recorded in the incremental manifest
+     */
+    private String outputOptions() {
+        // a constant or a method changed in one class changes the output of the classes using it
+        return "passes=" + passes + ",size=" + minimiseSize
+                + ",constants=" + Integer.toHexString(program.staticConstants().hashCode())
+                + ",methods=" + Integer.toHexString(program.methodsHash());
+    }
+
+    /**
+     * @return true for the class files to optimise, in a directory or a jar; the driver's own classes are
+     * left alone
+     */
+    static boolean isOptimisable(String fileName) {
+        return fileName.endsWith(".class") && !fileName.endsWith("Main.class") && !fileName.endsWith("ConstantFolder.class");
     }
 
     @Override
@@ -54,11 +209,37 @@ public class Main extends SimpleFileVisitor<Path> {
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        String fname = file.toString();
-        if(fname.endsWith(".class") && !fname.endsWith("Main.class") && !fname.endsWith("ConstantFolder.class")){
-            ConstantFolder cf = new ConstantFolder(file.toString());
+        if(isOptimisable(file.toString())){
             Path rel = Paths.get(inputRoot).relativize(file);
-            cf.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString());
+            String out = Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString();
+            Runnable onSuccess = null;
+            if (manifest != null) {
+                String key = IncrementalManifest.key(rel);
+                String hash = IncrementalManifest.hash(file);
+                if (manifest.isUpToDate(key, hash, ConstantFolder.VERSION, outputOptions)) {
+                    skipped++;
+                    return super.visitFile(file, attrs);
+                }
+                onSuccess = () -> manifest.record(key, hash, ConstantFolder.VERSION, outputOptions);
+            }
+            if (pool != null) {
+                try {
+                    pool.submit(file.toString(), out, onSuccess);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+            } else {
+                try {
+                    optimiser.optimise(file.toString(), out);
+                    optimised++;
+                    report.add(optimiser);
+                    if (onSuccess != null) onSuccess.run();
+                } catch (IOException | RuntimeException e) {
+                    failed++;
+                    System.err.println("Failed to optimise " + file + ": " + e);
+                }
+            }
         }
         return super.visitFile(file, attrs);
     }
@@ -0,0 +1,110 @@
+package comp0012.main;
+
+import comp0012.main.metrics.Json;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the per-class metrics of a run and writes them as the JSON file given to -report.
+ * Workers hand their metrics over as a JSON string plus flat counters, so only JDK types cross
+ * their class loaders. Totals are summed from the counters; per-pass totals come from the
+ * "pass.&lt;name&gt;.&lt;counter&gt;" keys.
+ */
+class MetricsReport {
+
+    private static final String PASS_PREFIX = "pass.";
+
+    private final List<String> classes = new ArrayList<>();
+    private final Map<String, Long> totals = new TreeMap<>();
+
+    /**
+     * Record the class the optimiser has just processed; without metrics only its counters are summed
+     */
+    synchronized void add(ClassOptimiser optimiser) {
+        String json = optimiser.lastMetrics();
+        Map<String, Long> counters = optimiser.lastCounters();
+        if (json != null) classes.add(json);
+        if (counters == null) return;
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            totals.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+    }
+
+    /**
+     * @return the sum of a counter over all classes added so far, or 0 if none has it
+     */
+    synchronized long total(String key) {
+        return totals.getOrDefault(key, 0L);
+    }
+
+    synchronized void write(Path file, long elapsedNanos, int threads) throws IOException {
+        // class entries start with their name, so sorting the strings makes parallel runs reproducible
+        Collections.sort(classes);
+
+        Map<String, Map<String, Long>> passes = new TreeMap<>();
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"elapsedNanos\": ").append(elapsedNanos)
+                .append(",\n  \"threads\": ").append(threads)
+                .append(",\n  \"totals\": {");
+        String sep = "";
+        for (Map.Entry<String, Long> e : totals.entrySet()) {
+            String key = e.getKey();
+            if (key.startsWith(PASS_PREFIX)) {
+                int dot = key.lastIndexOf('.');
+                passes.computeIfAbsent(key.substring(PASS_PREFIX.length(), dot), k -> new TreeMap<>())
+                        .put(key.substring(dot + 1), e.getValue());
+                continue;
+            }
+            json.append(sep);
+            Json.quote(json, key);
+            json.append(": ").append(e.getValue());
+            sep = ", ";
+        }
+        if (totals.containsKey("bytesBefore")) {
+            json.append(sep).append("\"bytesSaved\": ").append(totals.get("bytesBefore") - totals.get("bytesAfter"));
+        }
+        if (totals.containsKey("poolBefore")) {
+            json.append(", \"poolEntriesSaved\": ").append(totals.get("poolBefore") - totals.get("poolAfter"));
+        }
+        json.append("},\n  \"passes\": {");
+        sep = "";
+        for (Map.Entry<String, Map<String, Long>> pass : passes.entrySet()) {
+            json.append(sep).append("\n    ");
+            Json.quote(json, pass.getKey());
+            json.append(": {");
+            String inner = "";
+            for (Map.Entry<String, Long> e : pass.getValue().entrySet()) {
+                json.append(inner);
+                Json.quote(json, e.getKey());
+                json.append(": ").append(e.getValue());
+                inner = ", ";
+            }
+            json.append('}');
+            sep = ",";
+        }
+        json.append(passes.isEmpty() ? "" : "\n  ").append("},\n  \"classes\": [");
+        sep = "";
+        for (String c : classes) {
+            json.append(sep).append("\n    ").append(c);
+            sep = ",";
+        }
+        json.append(classes.isEmpty() ? "" : "\n  ").append("]\n}\n");
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+}
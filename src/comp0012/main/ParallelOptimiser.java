@@ -0,0 +1,120 @@
+package comp0012.main;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Pool of worker threads fed through a bounded queue.
+ * The producer (the directory walk) blocks in submit() when the queue is full, so memory use stays flat
+ * however large the input tree is.
+ */
+class ParallelOptimiser {
+
+    private static final Task POISON = new Task(null, null, null);
+
+    private static class Task {
+        final String inputPath;
+        final String outputPath;
+        final Runnable onSuccess;
+
+        Task(String in, String out, Runnable onSuccess) {
+            this.inputPath = in;
+            this.outputPath = out;
+            this.onSuccess = onSuccess;
+        }
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final Thread[] workers;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final Consumer<ClassOptimiser> setUp;
+    private final MetricsReport report;
+
+    /**
+     * @param setUp configures the optimiser of every worker on its own thread, and must not modify
+     * anything it shares between them
+     * @param report receives the metrics of every optimised class, may be null
+     */
+    ParallelOptimiser(int threads, int queueCapacity, Consumer<ClassOptimiser> setUp, MetricsReport report) {
+        this.setUp = setUp;
+        this.report = report;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "optimiser-worker-" + i);
+            workers[i].start();
+        }
+    }
+
+    void submit(String inputPath, String outputPath) throws InterruptedException {
+        submit(inputPath, outputPath, null);
+    }
+
+    /**
+     * @param onSuccess run on the worker thread once the output has been written, may be null
+     */
+    void submit(String inputPath, String outputPath, Runnable onSuccess) throws InterruptedException {
+        queue.put(new Task(inputPath, outputPath, onSuccess));
+    }
+
+    /**
+     * Wait until every submitted class has been processed and stop the workers
+     * @return number of classes optimised
+     */
+    int finish() throws InterruptedException {
+        for (int i = 0; i < workers.length; i++) {
+            queue.put(POISON);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return completed.get();
+    }
+
+    int failures() {
+        return failed.get();
+    }
+
+    private void work() {
+        ClassOptimiser optimiser;
+        try {
+            ClassLoader loader = new WorkerClassLoader(ClassOptimiser.class.getClassLoader(),
+                    ClassOptimiser.class.getName());
+            optimiser = (ClassOptimiser) loader.loadClass(ClassOptimiser.Default.class.getName())
+                    .getDeclaredConstructor().newInstance();
+            setUp.accept(optimiser);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // without an optimiser this worker can only drain its share of the queue
+            System.err.println("Failed to start " + Thread.currentThread().getName() + ": " + e);
+            optimiser = null;
+        }
+
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == POISON) return;
+
+            if (optimiser == null) {
+                failed.incrementAndGet();
+                continue;
+            }
+            try {
+                optimiser.optimise(task.inputPath, task.outputPath);
+                completed.incrementAndGet();
+                if (report != null) report.add(optimiser);
+                if (task.onSuccess != null) task.onSuccess.run();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.err.println("Failed to optimise " + task.inputPath + ": " + e);
+            }
+        }
+    }
+}
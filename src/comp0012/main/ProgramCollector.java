@@ -0,0 +1,228 @@
+package comp0012.main;
+
+import comp0012.main.passes.InlineCandidates;
+import comp0012.main.passes.ProgramInfo;
+import comp0012.main.passes.PureMethods;
+import comp0012.main.passes.StaticFieldConstants;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.util.ByteSequence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The whole-program pre-pass of Main: parses every class of the input, a directory tree or a jar, on a
+ * pool of threads and gathers the static final field constants that other classes may use in place of a
+ * GETSTATIC. A class only contributes if initialising it, its superclasses and its interfaces cannot have
+ * an observable effect, because the staticfield pass removes reads that may be what triggers it.
+ * It also lists the static methods marked with @Pure, which the purecall pass may evaluate, and the
+ * methods the inline pass may copy into other classes; static methods only from such inert classes, for
+ * the same reason.
+ * Parsing only builds class file structures, which threads may do with the same copy of BCEL.
+ */
+final class ProgramCollector {
+
+    private static class ClassSummary {
+        final String name;
+        final String superclass;
+        final String[] interfaces;
+        final StaticFieldConstants fields;
+        final List<String> pureMethods = new ArrayList<>();
+        final List<String> staticInlinable = new ArrayList<>();
+        final List<String> instanceInlinable = new ArrayList<>();
+        int methodCode = 0;
+
+        ClassSummary(JavaClass clazz) throws IOException {
+            this.name = clazz.getClassName();
+            this.superclass = clazz.getSuperclassName();
+            this.interfaces = clazz.getInterfaceNames();
+            this.fields = StaticFieldConstants.collect(clazz.getClassName(), clazz.getFields(), clazz.getMethods(),
+                    clazz.getConstantPool());
+            for (Method method : clazz.getMethods()) {
+                String key = ProgramInfo.methodKey(name, method.getName(), method.getSignature());
+                boolean used = false;
+                if (PureMethods.isAnnotatedPure(method)) {
+                    pureMethods.add(key);
+                    used = true;
+                }
+                if (InlineCandidates.isInlinable(method, clazz.isFinal(), clazz.getConstantPool())) {
+                    (method.isStatic() ? staticInlinable : instanceInlinable).add(key);
+                    used = true;
+                }
+                if (used && method.getCode() != null) {
+                    methodCode = 31 * methodCode + codeHash(method.getCode(), clazz.getConstantPool());
+                }
+            }
+        }
+
+        /**
+         * @return a hash of the bytecode and of the pool entries it refers to, which the bytes alone only
+         * give as indices
+         */
+        private static int codeHash(Code code, ConstantPool pool) throws IOException {
+            int hash = Arrays.hashCode(code.getCode());
+            try (ByteSequence bytes = new ByteSequence(code.getCode())) {
+                while (bytes.available() > 0) {
+                    Instruction inst = Instruction.readInstruction(bytes);
+                    if (inst instanceof CPInstruction) {
+                        int index = ((CPInstruction) inst).getIndex();
+                        hash = 31 * hash + pool.constantToString(pool.getConstant(index)).hashCode();
+                    }
+                }
+            }
+            return hash;
+        }
+    }
+
+    private final Map<String, ClassSummary> classes = new HashMap<>();
+    private final Map<String, Boolean> inert = new HashMap<>();
+    private final Map<String, Number> staticConstants = new TreeMap<>();
+    private final Set<String> pureMethods = new TreeSet<>();
+    private final Set<String> inlinableMethods = new TreeSet<>();
+    private int methodCode = 0;
+
+    private ProgramCollector() {
+    }
+
+    /**
+     * @return a program without constants or methods, for pipelines that need none
+     */
+    static ProgramCollector empty() {
+        return new ProgramCollector();
+    }
+
+    static ProgramCollector collect(Path input, int threads) throws IOException {
+        ProgramCollector collector = new ProgramCollector();
+        if (JarOptimiser.isJar(input)) {
+            try (ZipFile jar = new ZipFile(input.toFile())) {
+                List<Callable<ClassSummary>> tasks = new ArrayList<>();
+                for (ZipEntry entry : Collections.list(jar.entries())) {
+                    if (entry.getName().endsWith(".class")) {
+                        tasks.add(() -> summarise(jar.getInputStream(entry), entry.getName()));
+                    }
+                }
+                collector.run(tasks, threads);
+            }
+        } else {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(input)) {
+                files = walk.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+            }
+            List<Callable<ClassSummary>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(() -> summarise(Files.newInputStream(file), file.toString()));
+            }
+            collector.run(tasks, threads);
+        }
+
+        for (Map.Entry<String, ClassSummary> e : collector.classes.entrySet()) {
+            ClassSummary summary = e.getValue();
+            if (collector.isInert(e.getKey())) {
+                collector.staticConstants.putAll(summary.fields.getConstants());
+                collector.inlinableMethods.addAll(summary.staticInlinable);
+            }
+            collector.inlinableMethods.addAll(summary.instanceInlinable);
+            collector.pureMethods.addAll(summary.pureMethods);
+            collector.methodCode += summary.methodCode;
+        }
+        return collector;
+    }
+
+    /**
+     * @return the constants keyed by StaticFieldConstants.key(), in a stable order
+     */
+    Map<String, Number> staticConstants() {
+        return staticConstants;
+    }
+
+    /**
+     * @return the @Pure methods keyed by ProgramInfo.methodKey(), in a stable order
+     */
+    Set<String> pureMethods() {
+        return pureMethods;
+    }
+
+    /**
+     * @return the methods the inline pass may copy keyed by ProgramInfo.methodKey(), in a stable order
+     */
+    Set<String> inlinableMethods() {
+        return inlinableMethods;
+    }
+
+    /**
+     * @return a hash of the names and code of the @Pure and inlinable methods, including the constants
+     * they load and the methods they call, which changes whenever what they do for their callers does
+     */
+    int methodsHash() {
+        return 31 * (31 * pureMethods.hashCode() + inlinableMethods.hashCode()) + methodCode;
+    }
+
+    private static ClassSummary summarise(InputStream stream, String name) throws IOException {
+        try (InputStream in = stream) {
+            return new ClassSummary(new ClassParser(in, name).parse());
+        }
+    }
+
+    private void run(List<Callable<ClassSummary>> tasks, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            for (Future<ClassSummary> future : pool.invokeAll(tasks)) {
+                try {
+                    ClassSummary summary = future.get();
+                    classes.put(summary.name, summary);
+                } catch (ExecutionException e) {
+                    // unreadable classes are reported when Main tries to optimise them
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while collecting the program", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if initialising the class cannot have an effect other than setting its own fields.
+     * JDK classes count as inert.
+     */
+    private boolean isInert(String className) {
+        if (className.startsWith("java.")) return true;
+        Boolean known = inert.get(className);
+        if (known != null) return known;
+        ClassSummary summary = classes.get(className);
+        inert.put(className, false);
+        boolean result = summary != null && summary.fields.hasTrivialInitialiser() && isInert(summary.superclass);
+        for (int i = 0; result && i < summary.interfaces.length; i++) {
+            result = isInert(summary.interfaces[i]);
+        }
+        inert.put(className, result);
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package comp0012.main;
+
+import org.apache.bcel.classfile.ClassParser;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Child-first class loader giving each worker thread a private copy of BCEL, of the optimiser and of any
+ * custom passes on the class path.
+ * BCEL recycles InstructionHandles through unsynchronised static free lists, so two threads must never
+ * share the same loaded copy of org.apache.bcel.generic.
+ */
+class WorkerClassLoader extends URLClassLoader {
+
+    // types exchanged between the driver and the worker must come from the driver's loader
+    private final Set<String> shared;
+
+    WorkerClassLoader(ClassLoader parent, String... sharedClasses) {
+        super(classPath(), parent);
+        this.shared = new HashSet<>(Arrays.asList(sharedClasses));
+    }
+
+    private static URL[] classPath() {
+        Set<URL> urls = new LinkedHashSet<>();
+        urls.add(codeSource(ClassOptimiser.class));
+        urls.add(codeSource(ClassParser.class));
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (entry.isEmpty()) continue;
+            try {
+                urls.add(new File(entry).toURI().toURL());
+            } catch (MalformedURLException e) {
+                // not a usable class path entry
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    private static URL codeSource(Class<?> c) {
+        return c.getProtectionDomain().getCodeSource().getLocation();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (shared.contains(name) || name.startsWith("java.")) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    c = super.loadClass(name, false);
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package comp0012.main.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the optimiser did to one class: per method and per pass counters plus the class file and
+ * constant pool sizes.
+ */
+public class ClassMetrics
+{
+	private final String className;
+	private final List<MethodMetrics> methods = new ArrayList<>();
+	private long nanos;
+	private int bytesBefore = -1;
+	private int bytesAfter = -1;
+	private int poolBefore = -1;
+	private int poolAfter = -1;
+
+	public ClassMetrics(String className) {
+		this.className = className;
+	}
+
+	public MethodMetrics beginMethod(String name, int instructions) {
+		MethodMetrics m = new MethodMetrics(name, instructions);
+		methods.add(m);
+		return m;
+	}
+
+	public void setNanos(long nanos) {
+		this.nanos = nanos;
+	}
+
+	public void setSize(int bytesBefore, int bytesAfter) {
+		this.bytesBefore = bytesBefore;
+		this.bytesAfter = bytesAfter;
+	}
+
+	/**
+	 * @param before number of constant pool entries of the original class, counting index 0
+	 * @param after the same for the optimised class
+	 */
+	public void setConstantPoolSize(int before, int after) {
+		this.poolBefore = before;
+		this.poolAfter = after;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public List<MethodMetrics> getMethods() {
+		return Collections.unmodifiableList(methods);
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return class file size before optimisation, or -1 if it was not measured
+	 */
+	public int getBytesBefore() {
+		return bytesBefore;
+	}
+
+	public int getBytesAfter() {
+		return bytesAfter;
+	}
+
+	/**
+	 * @return constant pool entries before optimisation, or -1 if the class was not optimised
+	 */
+	public int getConstantPoolBefore() {
+		return poolBefore;
+	}
+
+	public int getConstantPoolAfter() {
+		return poolAfter;
+	}
+
+	/**
+	 * @return the counters of every pass summed over all methods
+	 */
+	public Map<String, PassMetrics> passTotals() {
+		Map<String, PassMetrics> totals = new LinkedHashMap<>();
+		for (MethodMetrics m : methods) {
+			for (Map.Entry<String, PassMetrics> e : m.getPasses().entrySet()) {
+				totals.computeIfAbsent(e.getKey(), k -> new PassMetrics()).add(e.getValue());
+			}
+		}
+		return totals;
+	}
+
+	/**
+	 * Flatten the class into summable counters, using only JDK types so they can be handed across
+	 * class loaders. Pass counters use keys of the form "pass.&lt;name&gt;.&lt;counter&gt;".
+	 */
+	public Map<String, Long> counters() {
+		Map<String, Long> c = new LinkedHashMap<>();
+		long instructionsBefore = 0, instructionsAfter = 0, iterations = 0, noFixpoint = 0;
+		for (MethodMetrics m : methods) {
+			instructionsBefore += m.getInstructionsBefore();
+			instructionsAfter += m.getInstructionsAfter();
+			iterations += m.getIterations();
+			if (!m.reachedFixpoint()) noFixpoint++;
+		}
+		c.put("classes", 1L);
+		c.put("methods", (long) methods.size());
+		c.put("nanos", nanos);
+		c.put("bytesBefore", (long) bytesBefore);
+		c.put("bytesAfter", (long) bytesAfter);
+		c.put("poolBefore", (long) poolBefore);
+		c.put("poolAfter", (long) poolAfter);
+		c.put("instructionsBefore", instructionsBefore);
+		c.put("instructionsAfter", instructionsAfter);
+		c.put("iterations", iterations);
+		c.put("methodsWithoutFixpoint", noFixpoint);
+		for (Map.Entry<String, PassMetrics> e : passTotals().entrySet()) {
+			String prefix = "pass." + e.getKey() + ".";
+			PassMetrics p = e.getValue();
+			c.put(prefix + "nanos", p.nanos);
+			c.put(prefix + "runs", (long) p.runs);
+			c.put(prefix + "changes", (long) p.changes);
+			c.put(prefix + "constantsFolded", (long) p.constantsFolded);
+			c.put(prefix + "loadsReplaced", (long) p.loadsReplaced);
+			c.put(prefix + "branchesFolded", (long) p.branchesFolded);
+			c.put(prefix + "instructionsRemoved", (long) p.instructionsRemoved);
+			c.put(prefix + "rewritesApplied", (long) p.rewritesApplied);
+			c.put(prefix + "callsInlined", (long) p.callsInlined);
+			c.put(prefix + "analysesSkipped", (long) p.analysesSkipped);
+		}
+		return c;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder(256 + 192 * methods.size());
+		json.append("{\"class\":");
+		Json.quote(json, className);
+		json.append(",\"nanos\":").append(nanos)
+				.append(",\"bytesBefore\":").append(bytesBefore)
+				.append(",\"bytesAfter\":").append(bytesAfter)
+				.append(",\"bytesSaved\":").append(bytesBefore - bytesAfter)
+				.append(",\"poolBefore\":").append(poolBefore)
+				.append(",\"poolAfter\":").append(poolAfter)
+				.append(",\"methods\":[");
+		for (int i = 0; i < methods.size(); i++) {
+			if (i > 0) json.append(',');
+			methods.get(i).appendJson(json);
+		}
+		json.append("]}");
+		return json.toString();
+	}
+}
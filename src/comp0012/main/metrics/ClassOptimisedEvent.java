@@ -0,0 +1,32 @@
+package comp0012.main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering ConstantFolder.optimize() for one class
+ */
+@Name("comp0012.ClassOptimised")
+@Label("Class Optimised")
+@Category({ "Optimiser" })
+@Description("Pass pipeline run over one class")
+public class ClassOptimisedEvent extends Event
+{
+	@Label("Class")
+	public String className;
+
+	@Label("Methods")
+	public int methods;
+
+	@Label("Instructions Before")
+	public int instructionsBefore;
+
+	@Label("Instructions After")
+	public int instructionsAfter;
+
+	@Label("Modified")
+	public boolean modified;
+}
@@ -0,0 +1,97 @@
+package comp0012.main.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What the pass pipeline did to one method
+ */
+public class MethodMetrics
+{
+	private final String name;
+	private final int instructionsBefore;
+	private int instructionsAfter;
+	private int iterations;
+	private boolean fixpoint = true;
+	private long nanos;
+	private final Map<String, PassMetrics> passes = new LinkedHashMap<>();
+
+	public MethodMetrics(String name, int instructionsBefore) {
+		this.name = name;
+		this.instructionsBefore = instructionsBefore;
+		this.instructionsAfter = instructionsBefore;
+	}
+
+	/**
+	 * @return the counters of the named pass, created on first use
+	 */
+	public PassMetrics pass(String passName) {
+		return passes.computeIfAbsent(passName, k -> new PassMetrics());
+	}
+
+	/**
+	 * @param iterations number of times the whole pipeline was run
+	 * @param fixpoint false if the iteration limit was hit before the passes stopped changing the method
+	 */
+	public void finish(int instructionsAfter, int iterations, boolean fixpoint) {
+		this.instructionsAfter = instructionsAfter;
+		this.iterations = iterations;
+		this.fixpoint = fixpoint;
+	}
+
+	/**
+	 * @param nanos wall time spent on the method, including lifting it into a MethodGen
+	 */
+	public void setNanos(long nanos) {
+		this.nanos = nanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getInstructionsBefore() {
+		return instructionsBefore;
+	}
+
+	public int getInstructionsAfter() {
+		return instructionsAfter;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public boolean reachedFixpoint() {
+		return fixpoint;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public Map<String, PassMetrics> getPasses() {
+		return Collections.unmodifiableMap(passes);
+	}
+
+	void appendJson(StringBuilder json) {
+		json.append("{\"name\":");
+		Json.quote(json, name);
+		json.append(",\"nanos\":").append(nanos)
+				.append(",\"instructionsBefore\":").append(instructionsBefore)
+				.append(",\"instructionsAfter\":").append(instructionsAfter)
+				.append(",\"iterations\":").append(iterations)
+				.append(",\"fixpoint\":").append(fixpoint)
+				.append(",\"passes\":{");
+		String sep = "";
+		for (Map.Entry<String, PassMetrics> e : passes.entrySet()) {
+			json.append(sep);
+			Json.quote(json, e.getKey());
+			json.append(':');
+			e.getValue().appendJson(json);
+			sep = ",";
+		}
+		json.append("}}");
+	}
+}
@@ -0,0 +1,32 @@
+package comp0012.main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering one run of one pass over one method
+ */
+@Name("comp0012.OptimisationPass")
+@Label("Optimisation Pass")
+@Category({ "Optimiser" })
+@Description("One run of an optimisation pass over a method")
+public class PassEvent extends Event
+{
+	@Label("Pass")
+	public String pass;
+
+	@Label("Class")
+	public String className;
+
+	@Label("Method")
+	public String method;
+
+	@Label("Iteration")
+	public int iteration;
+
+	@Label("Changed")
+	public boolean changed;
+}
@@ -0,0 +1,142 @@
+package comp0012.main.metrics;
+
+/**
+ * Counters of one optimisation pass, either for a single method or summed over many.
+ * Passes update the counters they know about; the PassManager fills in runs, changes and time.
+ */
+public class PassMetrics
+{
+	long nanos;
+	int runs;
+	int changes;
+	int constantsFolded;
+	int loadsReplaced;
+	int branchesFolded;
+	int instructionsRemoved;
+	int rewritesApplied;
+	int callsInlined;
+	int analysesSkipped;
+
+	public void addTime(long elapsedNanos, boolean changed) {
+		nanos += elapsedNanos;
+		runs++;
+		if (changed) changes++;
+	}
+
+	/**
+	 * An expression was replaced by the constant it evaluates to
+	 */
+	public void constantFolded() {
+		constantsFolded++;
+	}
+
+	/**
+	 * A load of a local variable was replaced by the constant it holds
+	 */
+	public void loadReplaced() {
+		loadsReplaced++;
+	}
+
+	/**
+	 * A branch or switch with constant operands was replaced by a jump or removed
+	 */
+	public void branchFolded() {
+		branchesFolded++;
+	}
+
+	/**
+	 * Instructions no path reaches were deleted
+	 */
+	public void instructionsRemoved(int count) {
+		instructionsRemoved += count;
+	}
+
+	/**
+	 * A pattern of instructions was rewritten into a cheaper equivalent
+	 */
+	public void rewriteApplied() {
+		rewritesApplied++;
+	}
+
+	/**
+	 * A call was replaced by a copy of the method it invokes
+	 */
+	public void callInlined() {
+		callsInlined++;
+	}
+
+	/**
+	 * The method could not be analysed, e.g. because it uses subroutines or its stack does not verify,
+	 * so the pass left it alone
+	 */
+	public void analysisSkipped() {
+		analysesSkipped++;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public int getRuns() {
+		return runs;
+	}
+
+	public int getChanges() {
+		return changes;
+	}
+
+	public int getConstantsFolded() {
+		return constantsFolded;
+	}
+
+	public int getLoadsReplaced() {
+		return loadsReplaced;
+	}
+
+	public int getBranchesFolded() {
+		return branchesFolded;
+	}
+
+	public int getInstructionsRemoved() {
+		return instructionsRemoved;
+	}
+
+	public int getRewritesApplied() {
+		return rewritesApplied;
+	}
+
+	public int getCallsInlined() {
+		return callsInlined;
+	}
+
+	public int getAnalysesSkipped() {
+		return analysesSkipped;
+	}
+
+	void add(PassMetrics other) {
+		nanos += other.nanos;
+		runs += other.runs;
+		changes += other.changes;
+		constantsFolded += other.constantsFolded;
+		loadsReplaced += other.loadsReplaced;
+		branchesFolded += other.branchesFolded;
+		instructionsRemoved += other.instructionsRemoved;
+		rewritesApplied += other.rewritesApplied;
+		callsInlined += other.callsInlined;
+		analysesSkipped += other.analysesSkipped;
+	}
+
+	void appendJson(StringBuilder json) {
+		json.append("{\"nanos\":").append(nanos)
+				.append(",\"runs\":").append(runs)
+				.append(",\"changes\":").append(changes)
+				.append(",\"constantsFolded\":").append(constantsFolded)
+				.append(",\"loadsReplaced\":").append(loadsReplaced)
+				.append(",\"branchesFolded\":").append(branchesFolded)
+				.append(",\"instructionsRemoved\":").append(instructionsRemoved)
+				.append(",\"rewritesApplied\":").append(rewritesApplied)
+				.append(",\"callsInlined\":").append(callsInlined)
+				.append(",\"analysesSkipped\":").append(analysesSkipped)
+				.append('}');
+	}
+}
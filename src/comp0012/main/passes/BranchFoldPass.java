@@ -0,0 +1,176 @@
+package comp0012.main.passes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+import comp0012.main.passes.ControlFlowGraph.Block;
+
+/**
+ * Rewrites branches and switches that ConstantPropagation decides into a GOTO, or removes them
+ * when they fall through, then deletes the blocks that no path reaches any more together with the
+ * exception handlers, local variable ranges and line numbers that only covered them, and the jumps
+ * over those blocks.
+ */
+public class BranchFoldPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private final ConstantValue operand = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "branchfold";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		ConstantPropagation analysis = ConstantPropagation.analyse(mg, cpgen);
+		if (analysis == null) {
+			metrics.analysisSkipped();
+			return false;
+		}
+
+		// the case taken is kept rather than its target, which an earlier rewrite may move
+		List<InstructionHandle> branches = new ArrayList<>();
+		List<Integer> cases = new ArrayList<>();
+		analysis.forEachInstruction((handle, before) -> {
+			Instruction inst = handle.getInstruction();
+			int decision = -1;
+			if (inst instanceof IfInstruction) {
+				decision = analysis.branch((IfInstruction) inst, before);
+			} else if (inst instanceof Select) {
+				decision = analysis.switchIndex((Select) inst, before);
+			}
+			if (decision >= 0) {
+				branches.add(handle);
+				cases.add(decision);
+			}
+		});
+
+		boolean modified = false;
+		for (int i = 0; i < branches.size(); i++) {
+			modified |= foldBranch(mg, cpgen, branches.get(i), cases.get(i));
+		}
+		if (removeUnreachableCode(mg)) {
+			removeJumpsToNext(mg);
+			modified = true;
+		}
+		mg.getInstructionList().setPositions(true);
+		return modified;
+	}
+
+	/**
+	 * Replace the branch by a jump to the successor it always takes, also removing the constant
+	 * pushes of its operands if nothing else jumps between them
+	 */
+	private boolean foldBranch(MethodGen mg, ConstantPoolGen cpgen, InstructionHandle branch, int decision) {
+		BranchInstruction inst = (BranchInstruction) branch.getInstruction();
+		InstructionHandle target;
+		if (inst instanceof Select) {
+			InstructionHandle[] targets = ((Select) inst).getTargets();
+			target = decision == targets.length ? inst.getTarget() : targets[decision];
+		} else {
+			target = decision == ConstantEvaluator.TAKEN ? inst.getTarget() : branch.getNext();
+		}
+
+		int words = inst.consumeStack(cpgen);
+		InstructionHandle first = branch;
+		for (int i = 0; i < words; i++) {
+			InstructionHandle prev = first.getPrev();
+			if (prev == null || !operand.load(prev.getInstruction(), cpgen)
+					|| ConstantEvaluator.size(operand.getTag()) != 1) {
+				first = branch;
+				break;
+			}
+			first = prev;
+		}
+		if (first != branch && (Instructions.hasJumpTargets(first, branch) || contains(first, branch, target))) {
+			first = branch;
+		}
+		if (target == branch) return false;
+
+		InstructionList replacement = new InstructionList();
+		if (first == branch) {
+			replacement.append(words == 2 ? new POP2() : new POP());
+		}
+		if (target != branch.getNext()) {
+			replacement.append(new GOTO(target));
+		}
+		Instructions.replace(mg, first, branch, replacement);
+		metrics.branchFolded();
+		return true;
+	}
+
+	private static boolean contains(InstructionHandle from, InstructionHandle to, InstructionHandle handle) {
+		for (InstructionHandle h = from; h != to; h = h.getNext()) {
+			if (h == handle) return true;
+		}
+		return handle == to;
+	}
+
+	/**
+	 * Delete every block that no path from the entry reaches
+	 */
+	private boolean removeUnreachableCode(MethodGen mg) {
+		InstructionList il = mg.getInstructionList();
+		ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+		List<Block> blocks = cfg.getBlocks();
+		BitSet reachable = new BitSet(blocks.size());
+		ArrayDeque<Block> worklist = new ArrayDeque<>();
+		reachable.set(0);
+		worklist.add(cfg.getEntry());
+		while (!worklist.isEmpty()) {
+			for (Block successor : worklist.poll().getSuccessors()) {
+				if (!reachable.get(successor.getIndex())) {
+					reachable.set(successor.getIndex());
+					worklist.add(successor);
+				}
+			}
+		}
+		if (reachable.cardinality() == blocks.size()) return false;
+
+		// a handler is only reachable from the blocks it covers, so all of its range is dead too
+		for (CodeExceptionGen handler : mg.getExceptionHandlers()) {
+			if (!reachable.get(cfg.blockAt(handler.getHandlerPC()).getIndex())) {
+				Instructions.removeExceptionHandler(mg, handler);
+			}
+		}
+
+		int removed = 0;
+		for (int i = reachable.nextClearBit(0); i < blocks.size(); i = reachable.nextClearBit(i)) {
+			int end = reachable.nextSetBit(i);
+			if (end < 0) end = blocks.size();
+			InstructionHandle from = blocks.get(i).getStart();
+			InstructionHandle to = blocks.get(end - 1).getEnd();
+			for (InstructionHandle h = from; ; h = h.getNext()) {
+				removed++;
+				if (h == to) break;
+			}
+			Instructions.replace(mg, from, to, new InstructionList());
+			i = end;
+		}
+		metrics.instructionsRemoved(removed);
+		return true;
+	}
+
+	private void removeJumpsToNext(MethodGen mg) {
+		for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; ) {
+			InstructionHandle next = handle.getNext();
+			if (handle.getInstruction() instanceof GotoInstruction
+					&& ((GotoInstruction) handle.getInstruction()).getTarget() == next) {
+				Instructions.replace(mg, handle, handle, new InstructionList());
+				metrics.instructionsRemoved(1);
+			}
+			handle = next;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package comp0012.main.passes;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.IfInstruction;
+import org.apache.bcel.generic.Instruction;
+
+/**
+ * Evaluates the JVM's arithmetic, bitwise, shift, negation, conversion and comparison opcodes on constants,
+ * with the same results the JVM would produce: ints and longs wrap, Integer.MIN_VALUE / -1 is
+ * Integer.MIN_VALUE, float and double results keep NaN and -0.0, and conversions saturate.
+ * Only integer division and remainder by zero are not folded, since they throw.
+ * The operand and result types of every opcode are kept in tables indexed by opcode; an operand
+ * of the wrong type means the expression was not recognised correctly, so it is not folded either.
+ */
+public final class ConstantEvaluator
+{
+	private static final int OPCODES = 256;
+
+	private static final byte[] ARITY = new byte[OPCODES];
+	private static final byte[] OPERAND1 = new byte[OPCODES];
+	private static final byte[] OPERAND2 = new byte[OPCODES];
+	private static final byte[] RESULT = new byte[OPCODES];
+
+	public static final int UNDECIDED = -1;
+	public static final int NOT_TAKEN = 0;
+	public static final int TAKEN = 1;
+
+	static {
+		final byte I = ConstantValue.INT, L = ConstantValue.LONG, F = ConstantValue.FLOAT, D = ConstantValue.DOUBLE;
+
+		binary(I, I, I, Constants.IADD, Constants.ISUB, Constants.IMUL, Constants.IDIV, Constants.IREM,
+				Constants.IAND, Constants.IOR, Constants.IXOR, Constants.ISHL, Constants.ISHR, Constants.IUSHR);
+		binary(L, L, L, Constants.LADD, Constants.LSUB, Constants.LMUL, Constants.LDIV, Constants.LREM,
+				Constants.LAND, Constants.LOR, Constants.LXOR);
+		// the shift distance of a long shift is an int
+		binary(L, I, L, Constants.LSHL, Constants.LSHR, Constants.LUSHR);
+		binary(F, F, F, Constants.FADD, Constants.FSUB, Constants.FMUL, Constants.FDIV, Constants.FREM);
+		binary(D, D, D, Constants.DADD, Constants.DSUB, Constants.DMUL, Constants.DDIV, Constants.DREM);
+		binary(L, L, I, Constants.LCMP);
+		binary(F, F, I, Constants.FCMPL, Constants.FCMPG);
+		binary(D, D, I, Constants.DCMPL, Constants.DCMPG);
+
+		unary(I, I, Constants.INEG, Constants.I2B, Constants.I2C, Constants.I2S);
+		unary(I, L, Constants.I2L);
+		unary(I, F, Constants.I2F);
+		unary(I, D, Constants.I2D);
+		unary(L, L, Constants.LNEG);
+		unary(L, I, Constants.L2I);
+		unary(L, F, Constants.L2F);
+		unary(L, D, Constants.L2D);
+		unary(F, F, Constants.FNEG);
+		unary(F, I, Constants.F2I);
+		unary(F, L, Constants.F2L);
+		unary(F, D, Constants.F2D);
+		unary(D, D, Constants.DNEG);
+		unary(D, I, Constants.D2I);
+		unary(D, L, Constants.D2L);
+		unary(D, F, Constants.D2F);
+	}
+
+	private static void binary(byte operand1, byte operand2, byte result, short... opcodes) {
+		for (short opcode : opcodes) {
+			ARITY[opcode] = 2;
+			OPERAND1[opcode] = operand1;
+			OPERAND2[opcode] = operand2;
+			RESULT[opcode] = result;
+		}
+	}
+
+	private static void unary(byte operand, byte result, short... opcodes) {
+		for (short opcode : opcodes) {
+			ARITY[opcode] = 1;
+			OPERAND1[opcode] = operand;
+			RESULT[opcode] = result;
+		}
+	}
+
+	private ConstantEvaluator() {
+	}
+
+	/**
+	 * @return how many values the instruction pops if it can be evaluated, or 0 if it cannot
+	 */
+	public static int arity(Instruction inst) {
+		return ARITY[inst.getOpcode() & 0xff];
+	}
+
+	/**
+	 * @return the ConstantValue type of the index'th operand (0 is pushed first) of an instruction that
+	 * arity says can be evaluated
+	 */
+	public static byte operandType(Instruction inst, int index) {
+		return index == 0 ? OPERAND1[inst.getOpcode() & 0xff] : OPERAND2[inst.getOpcode() & 0xff];
+	}
+
+	/**
+	 * @return the ConstantValue type of the result of an instruction that arity says can be evaluated
+	 */
+	public static byte resultType(Instruction inst) {
+		return RESULT[inst.getOpcode() & 0xff];
+	}
+
+	/**
+	 * @return the number of stack words a value of the ConstantValue type takes
+	 */
+	public static int size(byte type) {
+		return (type == ConstantValue.LONG || type == ConstantValue.DOUBLE) ? 2 : 1;
+	}
+
+	/**
+	 * Set out to the result of a unary opcode.
+	 * @return false, leaving out unknown, if the opcode is not unary or the operand has the wrong type
+	 */
+	public static boolean evaluate(Instruction inst, ConstantValue a, ConstantValue out) {
+		int opcode = inst.getOpcode() & 0xff;
+		if (ARITY[opcode] != 1 || a.getTag() != OPERAND1[opcode]) {
+			out.setUnknown();
+			return false;
+		}
+		switch (opcode) {
+			case Constants.INEG: out.setInt(-a.intValue()); break;
+			case Constants.LNEG: out.setLong(-a.longValue()); break;
+			case Constants.FNEG: out.setFloat(-a.floatValue()); break;
+			case Constants.DNEG: out.setDouble(-a.doubleValue()); break;
+
+			case Constants.I2L: out.setLong(a.intValue()); break;
+			case Constants.I2F: out.setFloat(a.intValue()); break;
+			case Constants.I2D: out.setDouble(a.intValue()); break;
+			case Constants.I2B: out.setInt((byte) a.intValue()); break;
+			case Constants.I2C: out.setInt((char) a.intValue()); break;
+			case Constants.I2S: out.setInt((short) a.intValue()); break;
+			case Constants.L2I: out.setInt((int) a.longValue()); break;
+			case Constants.L2F: out.setFloat(a.longValue()); break;
+			case Constants.L2D: out.setDouble(a.longValue()); break;
+			case Constants.F2I: out.setInt((int) a.floatValue()); break;
+			case Constants.F2L: out.setLong((long) a.floatValue()); break;
+			case Constants.F2D: out.setDouble(a.floatValue()); break;
+			case Constants.D2I: out.setInt((int) a.doubleValue()); break;
+			case Constants.D2L: out.setLong((long) a.doubleValue()); break;
+			case Constants.D2F: out.setFloat((float) a.doubleValue()); break;
+			default: out.setUnknown();
+		}
+		return out.isKnown();
+	}
+
+	/**
+	 * Set out to the result of a binary opcode, where a is the operand pushed first. out may be
+	 * one of the operands.
+	 * @return false, leaving out unknown, if the opcode is not binary, an operand has the wrong type or
+	 * the operation would throw
+	 */
+	public static boolean evaluate(Instruction inst, ConstantValue a, ConstantValue b, ConstantValue out) {
+		int opcode = inst.getOpcode() & 0xff;
+		if (ARITY[opcode] != 2 || a.getTag() != OPERAND1[opcode] || b.getTag() != OPERAND2[opcode]) {
+			out.setUnknown();
+			return false;
+		}
+		switch (opcode) {
+			case Constants.IADD: out.setInt(a.intValue() + b.intValue()); break;
+			case Constants.ISUB: out.setInt(a.intValue() - b.intValue()); break;
+			case Constants.IMUL: out.setInt(a.intValue() * b.intValue()); break;
+			case Constants.IDIV:
+				if (b.intValue() == 0) return unknown(out);
+				out.setInt(a.intValue() / b.intValue());
+				break;
+			case Constants.IREM:
+				if (b.intValue() == 0) return unknown(out);
+				out.setInt(a.intValue() % b.intValue());
+				break;
+			case Constants.IAND: out.setInt(a.intValue() & b.intValue()); break;
+			case Constants.IOR: out.setInt(a.intValue() | b.intValue()); break;
+			case Constants.IXOR: out.setInt(a.intValue() ^ b.intValue()); break;
+			case Constants.ISHL: out.setInt(a.intValue() << b.intValue()); break;
+			case Constants.ISHR: out.setInt(a.intValue() >> b.intValue()); break;
+			case Constants.IUSHR: out.setInt(a.intValue() >>> b.intValue()); break;
+
+			case Constants.LADD: out.setLong(a.longValue() + b.longValue()); break;
+			case Constants.LSUB: out.setLong(a.longValue() - b.longValue()); break;
+			case Constants.LMUL: out.setLong(a.longValue() * b.longValue()); break;
+			case Constants.LDIV:
+				if (b.longValue() == 0) return unknown(out);
+				out.setLong(a.longValue() / b.longValue());
+				break;
+			case Constants.LREM:
+				if (b.longValue() == 0) return unknown(out);
+				out.setLong(a.longValue() % b.longValue());
+				break;
+			case Constants.LAND: out.setLong(a.longValue() & b.longValue()); break;
+			case Constants.LOR: out.setLong(a.longValue() | b.longValue()); break;
+			case Constants.LXOR: out.setLong(a.longValue() ^ b.longValue()); break;
+			case Constants.LSHL: out.setLong(a.longValue() << b.intValue()); break;
+			case Constants.LSHR: out.setLong(a.longValue() >> b.intValue()); break;
+			case Constants.LUSHR: out.setLong(a.longValue() >>> b.intValue()); break;
+
+			case Constants.FADD: out.setFloat(a.floatValue() + b.floatValue()); break;
+			case Constants.FSUB: out.setFloat(a.floatValue() - b.floatValue()); break;
+			case Constants.FMUL: out.setFloat(a.floatValue() * b.floatValue()); break;
+			case Constants.FDIV: out.setFloat(a.floatValue() / b.floatValue()); break;
+			case Constants.FREM: out.setFloat(a.floatValue() % b.floatValue()); break;
+
+			case Constants.DADD: out.setDouble(a.doubleValue() + b.doubleValue()); break;
+			case Constants.DSUB: out.setDouble(a.doubleValue() - b.doubleValue()); break;
+			case Constants.DMUL: out.setDouble(a.doubleValue() * b.doubleValue()); break;
+			case Constants.DDIV: out.setDouble(a.doubleValue() / b.doubleValue()); break;
+			case Constants.DREM: out.setDouble(a.doubleValue() % b.doubleValue()); break;
+
+			case Constants.LCMP: out.setInt(Long.compare(a.longValue(), b.longValue())); break;
+			case Constants.FCMPL: out.setInt(compare(a.floatValue(), b.floatValue(), -1)); break;
+			case Constants.FCMPG: out.setInt(compare(a.floatValue(), b.floatValue(), 1)); break;
+			case Constants.DCMPL: out.setInt(compare(a.doubleValue(), b.doubleValue(), -1)); break;
+			case Constants.DCMPG: out.setInt(compare(a.doubleValue(), b.doubleValue(), 1)); break;
+
+			default: out.setUnknown();
+		}
+		return out.isKnown();
+	}
+
+	/**
+	 * fcmp and dcmp treat 0.0 and -0.0 as equal, and give nan when either operand is NaN
+	 */
+	private static int compare(double a, double b, int nan) {
+		if (a < b) return -1;
+		if (a > b) return 1;
+		if (a == b) return 0;
+		return nan;
+	}
+
+	/**
+	 * Decide a conditional branch on constant operands: a only for the IFEQ to IFLE family, a and b
+	 * (pushed first and second) for IF_ICMPEQ to IF_ICMPLE.
+	 * @return TAKEN or NOT_TAKEN, or UNDECIDED if an operand is unknown or the branch compares references
+	 */
+	public static int branch(IfInstruction inst, ConstantValue a, ConstantValue b) {
+		int opcode = inst.getOpcode();
+		int left, right;
+		if (opcode >= Constants.IFEQ && opcode <= Constants.IFLE) {
+			if (a.getTag() != ConstantValue.INT) return UNDECIDED;
+			left = a.intValue();
+			right = 0;
+		} else if (opcode >= Constants.IF_ICMPEQ && opcode <= Constants.IF_ICMPLE) {
+			if (a.getTag() != ConstantValue.INT || b.getTag() != ConstantValue.INT) return UNDECIDED;
+			left = a.intValue();
+			right = b.intValue();
+		} else {
+			return UNDECIDED;
+		}
+		boolean taken;
+		switch (opcode) {
+			case Constants.IFEQ: case Constants.IF_ICMPEQ: taken = left == right; break;
+			case Constants.IFNE: case Constants.IF_ICMPNE: taken = left != right; break;
+			case Constants.IFLT: case Constants.IF_ICMPLT: taken = left < right; break;
+			case Constants.IFGE: case Constants.IF_ICMPGE: taken = left >= right; break;
+			case Constants.IFGT: case Constants.IF_ICMPGT: taken = left > right; break;
+			default: taken = left <= right; break;
+		}
+		return taken ? TAKEN : NOT_TAKEN;
+	}
+
+	private static boolean unknown(ConstantValue out) {
+		out.setUnknown();
+		return false;
+	}
+}
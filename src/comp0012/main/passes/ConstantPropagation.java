@@ -0,0 +1,512 @@
+package comp0012.main.passes;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import comp0012.main.passes.ControlFlowGraph.Block;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over a ControlFlowGraph.
+ * Every local variable and stack word holds a lattice value: TOP while no executable path has
+ * assigned it, a constant while every executable path agrees on one, and unknown once they differ.
+ * Blocks are evaluated from a worklist starting at the entry block, and a block is evaluated again
+ * whenever the state at its entry changes. A branch or switch on constant operands only makes its
+ * taken successor executable, so values from paths that can never run do not spoil the result.
+ * An exception handler starts from the merge of the local variables before every instruction it covers.
+ * The analysis runs on the JVM frame rather than SSA form, so the unit of work is a block rather than a
+ * single definition, but it reaches the same fixpoint for local variables.
+ */
+public final class ConstantPropagation
+{
+	/**
+	 * Lattice value of a variable or stack word that no executable path has assigned yet
+	 */
+	public static final byte TOP = -1;
+
+	/**
+	 * Receives every executable instruction together with the frame before it
+	 */
+	public interface Visitor
+	{
+		void visit(InstructionHandle handle, Frame before);
+	}
+
+	/**
+	 * The lattice values of the local variables and the operand stack at one point of the method.
+	 * A long or double takes two stack words, both holding its value, and two local variable slots,
+	 * the first of which holds its value.
+	 */
+	public static final class Frame
+	{
+		private byte[] localTags;
+		private long[] localBits;
+		private byte[] stackTags;
+		private long[] stackBits;
+		private int depth;
+
+		Frame(int maxLocals, int maxStack) {
+			localTags = new byte[maxLocals];
+			localBits = new long[maxLocals];
+			Arrays.fill(localTags, TOP);
+			stackTags = new byte[Math.max(maxStack, 2)];
+			stackBits = new long[stackTags.length];
+		}
+
+		public int getStackDepth() {
+			return depth;
+		}
+
+		/**
+		 * Copy the value of a local variable into out.
+		 * @return false, leaving out unknown, unless the variable holds the same constant on every executable path
+		 */
+		public boolean getLocal(int slot, ConstantValue out) {
+			if (slot >= localTags.length || localTags[slot] == TOP) {
+				out.setUnknown();
+				return false;
+			}
+			return out.set(localTags[slot], localBits[slot]).isKnown();
+		}
+
+		/**
+		 * Copy the value of a stack word into out, 0 being the top of the stack.
+		 * @return false, leaving out unknown, unless the word holds the same constant on every executable path
+		 */
+		public boolean getStack(int fromTop, ConstantValue out) {
+			int i = depth - 1 - fromTop;
+			if (i < 0 || stackTags[i] == TOP) {
+				out.setUnknown();
+				return false;
+			}
+			return out.set(stackTags[i], stackBits[i]).isKnown();
+		}
+
+		private void copyFrom(Frame other) {
+			if (localTags.length != other.localTags.length) {
+				localTags = new byte[other.localTags.length];
+				localBits = new long[other.localTags.length];
+			}
+			System.arraycopy(other.localTags, 0, localTags, 0, localTags.length);
+			System.arraycopy(other.localBits, 0, localBits, 0, localBits.length);
+			ensureStack(other.depth);
+			System.arraycopy(other.stackTags, 0, stackTags, 0, other.depth);
+			System.arraycopy(other.stackBits, 0, stackBits, 0, other.depth);
+			depth = other.depth;
+		}
+
+		private Frame copy() {
+			Frame frame = new Frame(localTags.length, depth);
+			frame.copyFrom(this);
+			return frame;
+		}
+
+		/**
+		 * @return true if this frame changed
+		 * @throws IllegalStateException if the stack depths differ, which verified code never does
+		 */
+		private boolean meet(Frame other) {
+			if (depth != other.depth) {
+				throw new IllegalStateException("stack depths " + depth + " and " + other.depth + " meet");
+			}
+			boolean changed = meetLocals(other);
+			for (int i = 0; i < depth; i++) {
+				changed |= meet(stackTags, stackBits, i, other.stackTags[i], other.stackBits[i]);
+			}
+			return changed;
+		}
+
+		private boolean meetLocals(Frame other) {
+			ensureLocal(other.localTags.length - 1);
+			boolean changed = false;
+			for (int i = 0; i < other.localTags.length; i++) {
+				changed |= meet(localTags, localBits, i, other.localTags[i], other.localBits[i]);
+			}
+			return changed;
+		}
+
+		private static boolean meet(byte[] tags, long[] bits, int i, byte tag, long value) {
+			byte current = tags[i];
+			if (tag == TOP || current == ConstantValue.UNKNOWN) return false;
+			if (current == TOP) {
+				tags[i] = tag;
+				bits[i] = value;
+				return true;
+			}
+			if (tag == current && bits[i] == value) return false;
+			tags[i] = ConstantValue.UNKNOWN;
+			return true;
+		}
+
+		private void ensureStack(int size) {
+			if (size > stackTags.length) {
+				int capacity = Math.max(size, stackTags.length * 2);
+				stackTags = Arrays.copyOf(stackTags, capacity);
+				stackBits = Arrays.copyOf(stackBits, capacity);
+			}
+		}
+
+		private void ensureLocal(int slot) {
+			if (slot >= localTags.length) {
+				int size = localTags.length;
+				localTags = Arrays.copyOf(localTags, slot + 1);
+				localBits = Arrays.copyOf(localBits, slot + 1);
+				Arrays.fill(localTags, size, slot + 1, TOP);
+			}
+		}
+
+		private void push(byte tag, long bits, int words) {
+			ensureStack(depth + words);
+			for (int i = 0; i < words; i++) {
+				stackTags[depth] = tag;
+				stackBits[depth] = bits;
+				depth++;
+			}
+		}
+
+		private void push(ConstantValue value) {
+			push(value.getTag(), value.getBits(), ConstantEvaluator.size(value.getTag()));
+		}
+
+		private void pushUnknown(int words) {
+			push(ConstantValue.UNKNOWN, 0, words);
+		}
+
+		/**
+		 * Pop a value of the given number of words into out
+		 */
+		private boolean pop(int words, ConstantValue out) {
+			getStack(0, out);
+			pop(words);
+			return out.isKnown();
+		}
+
+		private void pop(int words) {
+			if (words > depth) {
+				throw new IllegalStateException("stack underflow");
+			}
+			depth -= words;
+		}
+
+		private void loadLocal(int slot, int words) {
+			ensureLocal(slot);
+			push(localTags[slot], localBits[slot], words);
+		}
+
+		private void storeLocal(int slot, int words) {
+			ensureLocal(slot + words - 1);
+			localTags[slot] = stackTags[depth - 1];
+			localBits[slot] = stackBits[depth - 1];
+			if (words == 2) {
+				localTags[slot + 1] = ConstantValue.UNKNOWN;
+			}
+			pop(words);
+		}
+
+		private void setLocal(int slot, byte tag, long bits) {
+			ensureLocal(slot);
+			localTags[slot] = tag;
+			localBits[slot] = bits;
+		}
+
+		/**
+		 * Copy the top words of the stack below the next under words, as the DUP instructions do
+		 */
+		private void dup(int words, int under) {
+			ensureStack(depth + words);
+			int from = depth - words - under;
+			if (from < 0) {
+				throw new IllegalStateException("stack underflow");
+			}
+			System.arraycopy(stackTags, from, stackTags, from + words, words + under);
+			System.arraycopy(stackBits, from, stackBits, from + words, words + under);
+			System.arraycopy(stackTags, depth, stackTags, from, words);
+			System.arraycopy(stackBits, depth, stackBits, from, words);
+			depth += words;
+		}
+
+		private void swap() {
+			dup(1, 1);
+			pop(1);
+		}
+	}
+
+	private final ControlFlowGraph cfg;
+	private final ConstantPoolGen cpgen;
+	private final Frame[] entries;
+	private final ArrayDeque<Block> worklist = new ArrayDeque<>();
+	private final BitSet queued = new BitSet();
+	private final ConstantValue first = new ConstantValue();
+	private final ConstantValue second = new ConstantValue();
+	private final ConstantValue result = new ConstantValue();
+
+	private ConstantPropagation(ControlFlowGraph cfg, ConstantPoolGen cpgen) {
+		this.cfg = cfg;
+		this.cpgen = cpgen;
+		this.entries = new Frame[cfg.getBlocks().size()];
+	}
+
+	/**
+	 * @return the solved analysis of the method, or null if it has no code, uses subroutines (JSR/RET),
+	 * which are not modelled, or its stack does not verify
+	 */
+	public static ConstantPropagation analyse(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+		if (il == null || il.isEmpty()) return null;
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof JsrInstruction || inst instanceof RET) return null;
+		}
+
+		ConstantPropagation analysis = new ConstantPropagation(
+				new ControlFlowGraph(il, mg.getExceptionHandlers()), cpgen);
+		try {
+			analysis.solve(entryFrame(mg));
+		} catch (IllegalStateException e) {
+			// the passes count the skipped method in their metrics
+			return null;
+		}
+		return analysis;
+	}
+
+	/**
+	 * The frame on entry: the receiver and arguments are unknown, the other variables unassigned
+	 */
+	private static Frame entryFrame(MethodGen mg) {
+		Frame frame = new Frame(mg.getMaxLocals(), mg.getMaxStack());
+		int slot = 0;
+		if (!mg.isStatic()) {
+			frame.setLocal(slot++, ConstantValue.UNKNOWN, 0);
+		}
+		for (Type type : mg.getArgumentTypes()) {
+			for (int i = 0; i < type.getSize(); i++) {
+				frame.setLocal(slot++, ConstantValue.UNKNOWN, 0);
+			}
+		}
+		return frame;
+	}
+
+	public ControlFlowGraph getControlFlowGraph() {
+		return cfg;
+	}
+
+	/**
+	 * @return true if some executable path reaches the block
+	 */
+	public boolean isReachable(Block block) {
+		return entries[block.getIndex()] != null;
+	}
+
+	/**
+	 * Call the visitor for every instruction of every reachable block, in instruction order.
+	 * The visitor must not change the instruction list.
+	 */
+	public void forEachInstruction(Visitor visitor) {
+		Frame frame = new Frame(0, 0);
+		for (Block block : cfg.getBlocks()) {
+			Frame entry = entries[block.getIndex()];
+			if (entry == null) continue;
+			frame.copyFrom(entry);
+			for (InstructionHandle handle = block.getStart(); ; handle = handle.getNext()) {
+				visitor.visit(handle, frame);
+				if (handle == block.getEnd()) break;
+				execute(handle, frame);
+			}
+		}
+	}
+
+	private void solve(Frame entry) {
+		Block start = cfg.getEntry();
+		entries[start.getIndex()] = entry;
+		enqueue(start);
+
+		Frame frame = new Frame(0, 0);
+		while (!worklist.isEmpty()) {
+			Block block = worklist.poll();
+			queued.clear(block.getIndex());
+			frame.copyFrom(entries[block.getIndex()]);
+
+			for (InstructionHandle handle = block.getStart(); ; handle = handle.getNext()) {
+				for (CodeExceptionGen handler : block.getHandlers()) {
+					flowToHandler(handler, frame);
+				}
+				if (handle == block.getEnd()) {
+					flowFromEnd(handle, frame);
+					break;
+				}
+				execute(handle, frame);
+			}
+		}
+	}
+
+	private void enqueue(Block block) {
+		if (!queued.get(block.getIndex())) {
+			queued.set(block.getIndex());
+			worklist.add(block);
+		}
+	}
+
+	/**
+	 * Merge the frame into the entry of the block, making it executable
+	 */
+	private void flow(Block block, Frame frame) {
+		if (block == null) return;
+		Frame entry = entries[block.getIndex()];
+		if (entry == null) {
+			entries[block.getIndex()] = frame.copy();
+			enqueue(block);
+		} else if (entry.meet(frame)) {
+			enqueue(block);
+		}
+	}
+
+	private void flowToHandler(CodeExceptionGen handler, Frame frame) {
+		Block block = cfg.blockAt(handler.getHandlerPC());
+		Frame entry = entries[block.getIndex()];
+		if (entry == null) {
+			entry = new Frame(0, 1);
+			entry.copyFrom(frame);
+			entry.depth = 0;
+			// the handler starts with only the exception on the stack
+			entry.pushUnknown(1);
+			entries[block.getIndex()] = entry;
+			enqueue(block);
+		} else if (entry.meetLocals(frame)) {
+			enqueue(block);
+		}
+	}
+
+	/**
+	 * Execute the last instruction of a block and pass the frame on to the successors it can reach
+	 */
+	private void flowFromEnd(InstructionHandle end, Frame frame) {
+		Instruction inst = end.getInstruction();
+		if (inst instanceof ReturnInstruction || inst instanceof ATHROW) {
+			return;
+		}
+		if (inst instanceof GotoInstruction) {
+			flow(cfg.blockAt(((GotoInstruction) inst).getTarget()), frame);
+		} else if (inst instanceof IfInstruction) {
+			int decision = branch((IfInstruction) inst, frame);
+			execute(end, frame);
+			if (decision != ConstantEvaluator.TAKEN) {
+				flow(cfg.blockAt(end.getNext()), frame);
+			}
+			if (decision != ConstantEvaluator.NOT_TAKEN) {
+				flow(cfg.blockAt(((IfInstruction) inst).getTarget()), frame);
+			}
+		} else if (inst instanceof Select) {
+			Select select = (Select) inst;
+			int index = switchIndex(select, frame);
+			frame.pop(1);
+			InstructionHandle[] targets = select.getTargets();
+			if (index < 0) {
+				for (InstructionHandle target : targets) {
+					flow(cfg.blockAt(target), frame);
+				}
+			}
+			flow(cfg.blockAt(index < 0 || index == targets.length ? select.getTarget() : targets[index]), frame);
+		} else {
+			execute(end, frame);
+			flow(cfg.blockAt(end.getNext()), frame);
+		}
+	}
+
+	/**
+	 * @return ConstantEvaluator.TAKEN or NOT_TAKEN if the operands on top of the stack before the branch
+	 * decide it, otherwise UNDECIDED
+	 */
+	public int branch(IfInstruction inst, Frame before) {
+		if (inst.consumeStack(cpgen) == 1) {
+			before.getStack(0, first);
+			return ConstantEvaluator.branch(inst, first, second.setUnknown());
+		}
+		before.getStack(1, first);
+		before.getStack(0, second);
+		return ConstantEvaluator.branch(inst, first, second);
+	}
+
+	/**
+	 * @return the index in getTargets() of the case taken with the key on top of the stack before the switch,
+	 * getTargets().length for the default, or -1 if the key is not constant
+	 */
+	public int switchIndex(Select select, Frame before) {
+		if (!before.getStack(0, first)) return -1;
+		int[] matches = select.getMatchs();
+		for (int i = 0; i < matches.length; i++) {
+			if (matches[i] == first.intValue()) return i;
+		}
+		return matches.length;
+	}
+
+	/**
+	 * Apply the effect of an instruction that is not the end of a block to the frame
+	 */
+	private void execute(InstructionHandle handle, Frame frame) {
+		Instruction inst = handle.getInstruction();
+
+		if (result.load(inst, cpgen)) {
+			frame.push(result);
+			return;
+		}
+		if (inst instanceof LoadInstruction) {
+			if (inst instanceof ALOAD) {
+				frame.pushUnknown(1);
+			} else {
+				frame.loadLocal(((LoadInstruction) inst).getIndex(), inst.produceStack(cpgen));
+			}
+			return;
+		}
+		if (inst instanceof StoreInstruction) {
+			frame.storeLocal(((StoreInstruction) inst).getIndex(), inst.consumeStack(cpgen));
+			return;
+		}
+		if (inst instanceof IINC) {
+			IINC iinc = (IINC) inst;
+			if (frame.getLocal(iinc.getIndex(), first)) {
+				frame.setLocal(iinc.getIndex(), ConstantValue.INT, first.intValue() + iinc.getIncrement());
+			} else if (frame.localTags[iinc.getIndex()] != TOP) {
+				frame.setLocal(iinc.getIndex(), ConstantValue.UNKNOWN, 0);
+			}
+			return;
+		}
+
+		int arity = ConstantEvaluator.arity(inst);
+		if (arity == 2) {
+			frame.pop(ConstantEvaluator.size(ConstantEvaluator.operandType(inst, 1)), second);
+			frame.pop(ConstantEvaluator.size(ConstantEvaluator.operandType(inst, 0)), first);
+			if (ConstantEvaluator.evaluate(inst, first, second, result)) {
+				frame.push(result);
+			} else {
+				frame.pushUnknown(ConstantEvaluator.size(ConstantEvaluator.resultType(inst)));
+			}
+			return;
+		}
+		if (arity == 1) {
+			frame.pop(ConstantEvaluator.size(ConstantEvaluator.operandType(inst, 0)), first);
+			if (ConstantEvaluator.evaluate(inst, first, result)) {
+				frame.push(result);
+			} else {
+				frame.pushUnknown(ConstantEvaluator.size(ConstantEvaluator.resultType(inst)));
+			}
+			return;
+		}
+
+		switch (inst.getOpcode()) {
+			case Constants.DUP: frame.dup(1, 0); return;
+			case Constants.DUP_X1: frame.dup(1, 1); return;
+			case Constants.DUP_X2: frame.dup(1, 2); return;
+			case Constants.DUP2: frame.dup(2, 0); return;
+			case Constants.DUP2_X1: frame.dup(2, 1); return;
+			case Constants.DUP2_X2: frame.dup(2, 2); return;
+			case Constants.SWAP: frame.swap(); return;
+			default:
+				// anything else produces values that are not constants
+				frame.pop(inst.consumeStack(cpgen));
+				frame.pushUnknown(inst.produceStack(cpgen));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package comp0012.main.passes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Replaces loads of local variables that hold the same constant on every executable path,
+ * as found by ConstantPropagation. Unlike constfold and dynfold this is sound across branches,
+ * loops and exception handlers; constfold then folds the expressions the constants expose.
+ */
+public class ConstantPropagationPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private final ConstantValue value = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "sccp";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		ConstantPropagation analysis = ConstantPropagation.analyse(mg, cpgen);
+		if (analysis == null) {
+			metrics.analysisSkipped();
+			return false;
+		}
+
+		List<InstructionHandle> loads = new ArrayList<>();
+		List<Instruction> replacements = new ArrayList<>();
+		analysis.forEachInstruction((handle, before) -> {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof LoadInstruction && !(inst instanceof ALOAD)
+					&& before.getLocal(((LoadInstruction) inst).getIndex(), value)) {
+				loads.add(handle);
+				replacements.add(Instructions.createConstantInstruction(value, cpgen));
+			}
+		});
+
+		InstructionList il = mg.getInstructionList();
+		for (int i = 0; i < loads.size(); i++) {
+			InstructionHandle load = loads.get(i);
+			InstructionHandle replacement = il.insert(load, replacements.get(i));
+			Instructions.redirectTargeters(load, replacement);
+			try {
+				il.delete(load);
+			} catch (TargetLostException e) {
+				System.err.println("Target lost while replacing constant load: " + e.getMessage());
+			}
+			metrics.loadReplaced();
+		}
+		il.setPositions(true);
+		return !loads.isEmpty();
+	}
+}
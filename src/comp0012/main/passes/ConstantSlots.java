@@ -0,0 +1,45 @@
+package comp0012.main.passes;
+
+import java.util.Arrays;
+
+/**
+ * Known constant values of a method's local variables, kept as a type tag and raw bits per slot
+ * rather than a map of boxed Numbers.
+ */
+final class ConstantSlots
+{
+	private byte[] tags;
+	private long[] bits;
+
+	ConstantSlots(int maxLocals) {
+		tags = new byte[Math.max(maxLocals, 1)];
+		bits = new long[tags.length];
+	}
+
+	boolean contains(int slot) {
+		return slot < tags.length && tags[slot] != ConstantValue.UNKNOWN;
+	}
+
+	/**
+	 * Copy the value of the slot into out.
+	 * @return false, leaving out unknown, if the slot has no known value
+	 */
+	boolean get(int slot, ConstantValue out) {
+		if (slot >= tags.length) {
+			out.setUnknown();
+		} else {
+			out.set(tags[slot], bits[slot]);
+		}
+		return out.isKnown();
+	}
+
+	void put(int slot, ConstantValue value) {
+		if (slot >= tags.length) {
+			int size = Math.max(slot + 1, tags.length * 2);
+			tags = Arrays.copyOf(tags, size);
+			bits = Arrays.copyOf(bits, size);
+		}
+		tags[slot] = value.getTag();
+		bits[slot] = value.getBits();
+	}
+}
@@ -0,0 +1,147 @@
+package comp0012.main.passes;
+
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantDouble;
+import org.apache.bcel.classfile.ConstantFloat;
+import org.apache.bcel.classfile.ConstantInteger;
+import org.apache.bcel.classfile.ConstantLong;
+import org.apache.bcel.generic.*;
+
+/**
+ * A constant of one of the JVM's primitive computational types, held as a type tag and the raw
+ * 64 bits of the value instead of a boxed Number.
+ * Instances are mutable so the passes can evaluate into a few reused registers without allocating;
+ * the accessors convert between the types the same way Number does.
+ */
+public final class ConstantValue
+{
+	public static final byte UNKNOWN = 0;
+	public static final byte INT = 1;
+	public static final byte LONG = 2;
+	public static final byte FLOAT = 3;
+	public static final byte DOUBLE = 4;
+
+	private byte tag = UNKNOWN;
+	private long bits;
+
+	public byte getTag() {
+		return tag;
+	}
+
+	/**
+	 * @return the raw value: an int or long sign extended, a float or double as its IEEE bits
+	 */
+	public long getBits() {
+		return bits;
+	}
+
+	public boolean isKnown() {
+		return tag != UNKNOWN;
+	}
+
+	public ConstantValue set(byte tag, long bits) {
+		this.tag = tag;
+		this.bits = bits;
+		return this;
+	}
+
+	public ConstantValue set(ConstantValue other) {
+		return set(other.tag, other.bits);
+	}
+
+	public ConstantValue setUnknown() {
+		return set(UNKNOWN, 0);
+	}
+
+	public ConstantValue setInt(int value) {
+		return set(INT, value);
+	}
+
+	public ConstantValue setLong(long value) {
+		return set(LONG, value);
+	}
+
+	public ConstantValue setFloat(float value) {
+		return set(FLOAT, Float.floatToRawIntBits(value));
+	}
+
+	public ConstantValue setDouble(double value) {
+		return set(DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	public int intValue() {
+		switch (tag) {
+			case FLOAT: return (int) Float.intBitsToFloat((int) bits);
+			case DOUBLE: return (int) Double.longBitsToDouble(bits);
+			default: return (int) bits;
+		}
+	}
+
+	public long longValue() {
+		switch (tag) {
+			case FLOAT: return (long) Float.intBitsToFloat((int) bits);
+			case DOUBLE: return (long) Double.longBitsToDouble(bits);
+			default: return bits;
+		}
+	}
+
+	public float floatValue() {
+		switch (tag) {
+			case FLOAT: return Float.intBitsToFloat((int) bits);
+			case DOUBLE: return (float) Double.longBitsToDouble(bits);
+			default: return bits;
+		}
+	}
+
+	public double doubleValue() {
+		switch (tag) {
+			case FLOAT: return Float.intBitsToFloat((int) bits);
+			case DOUBLE: return Double.longBitsToDouble(bits);
+			default: return bits;
+		}
+	}
+
+	/**
+	 * Set this to the value pushed by a constant instruction (ICONST, BIPUSH, SIPUSH, LCONST, FCONST,
+	 * DCONST, LDC or LDC2_W of a number).
+	 * @return false, leaving this unknown, for any other instruction
+	 */
+	public boolean load(Instruction inst, ConstantPoolGen cpgen) {
+		if (inst instanceof ICONST || inst instanceof BIPUSH || inst instanceof SIPUSH) {
+			setInt(((ConstantPushInstruction) inst).getValue().intValue());
+		} else if (inst instanceof LCONST) {
+			setLong(((LCONST) inst).getValue().longValue());
+		} else if (inst instanceof FCONST) {
+			setFloat(((FCONST) inst).getValue().floatValue());
+		} else if (inst instanceof DCONST) {
+			setDouble(((DCONST) inst).getValue().doubleValue());
+		} else if (inst instanceof LDC || inst instanceof LDC2_W) {
+			Constant c = cpgen.getConstant(((CPInstruction) inst).getIndex());
+			if (c instanceof ConstantInteger) {
+				setInt(((ConstantInteger) c).getBytes());
+			} else if (c instanceof ConstantFloat) {
+				setFloat(((ConstantFloat) c).getBytes());
+			} else if (c instanceof ConstantLong) {
+				setLong(((ConstantLong) c).getBytes());
+			} else if (c instanceof ConstantDouble) {
+				setDouble(((ConstantDouble) c).getBytes());
+			} else {
+				setUnknown();
+			}
+		} else {
+			setUnknown();
+		}
+		return isKnown();
+	}
+
+	@Override
+	public String toString() {
+		switch (tag) {
+			case INT: return Integer.toString(intValue());
+			case LONG: return longValue() + "L";
+			case FLOAT: return floatValue() + "f";
+			case DOUBLE: return Double.toString(doubleValue());
+			default: return "unknown";
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package comp0012.main.passes;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Folds variables that are assigned a constant exactly once, then folds the
+ * constant arithmetic expressions that this exposes.
+ */
+public class ConstantVariableFoldPass implements OptimizationPass
+{
+	/**
+	 * Deepest expression tree evaluated, which bounds the work done for long unfoldable chains
+	 */
+	private static final int MAX_DEPTH = 32;
+
+	private PassMetrics metrics = new PassMetrics();
+	private final ConstantValue result = new ConstantValue();
+	private ConstantValue[] registers = new ConstantValue[8];
+
+	@Override
+	public String name() {
+		return "constfold";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+
+		BitSet reassigned = findReassignedVariables(il);
+		ConstantSlots constantVars = findConstantAssignments(il, cpgen, mg.getMaxLocals(), reassigned);
+		boolean modified = replaceConstantLoads(il, cpgen, constantVars);
+
+		boolean changed;
+		do {
+			changed = false;
+			InstructionHandle current = il.getStart();
+			while (current != null) {
+				InstructionHandle next = tryFoldExpression(current, il, cpgen, constantVars, reassigned);
+				if (next != null) {
+					changed = true;
+				}
+				current = (next != null) ? next : current.getNext();
+			}
+			modified |= changed;
+		} while (changed);
+
+		il.setPositions(true);
+		return modified;
+	}
+
+	private void replaceWithConstant(InstructionList il,
+									 InstructionHandle from,
+									 InstructionHandle to,
+									 ConstantValue value,
+									 ConstantPoolGen cpgen) {
+		if (!value.isKnown()) return;
+		try {
+			Instruction constInstr = Instructions.createConstantInstruction(value, cpgen);
+			InstructionHandle inserted = il.insert(from, constInstr);
+
+			for (InstructionHandle h = from; h != to.getNext(); h = h.getNext()) {
+				Instructions.redirectTargeters(h, inserted);
+			}
+
+			il.delete(from, to);
+			metrics.constantFolded();
+		} catch (TargetLostException e) {
+			System.err.println("Failed to replace expression with constant: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Scratch values for evaluateExpression, two per level of nesting, so evaluating does not allocate
+	 */
+	private ConstantValue register(int index) {
+		if (index >= registers.length) {
+			int size = Math.max(index + 1, registers.length * 2);
+			registers = Arrays.copyOf(registers, size);
+		}
+		if (registers[index] == null) {
+			registers[index] = new ConstantValue();
+		}
+		return registers[index];
+	}
+
+	/**
+	 * Evaluate the expression that ends with the given instruction into out. Its leaves are constants
+	 * and loads of the variables in constants, its operators anything ConstantEvaluator understands.
+	 * @return the first instruction of the expression, or null, leaving out unknown, if it is not constant
+	 */
+	private InstructionHandle evaluateExpression(InstructionHandle end, ConstantPoolGen cpgen, ConstantSlots constants,
+												 ConstantValue out, int depth) {
+		Instruction inst = end.getInstruction();
+
+		if (out.load(inst, cpgen)) {
+			return end;
+		}
+
+		if (inst instanceof LoadInstruction) {
+			return constants.get(((LoadInstruction) inst).getIndex(), out) ? end : null;
+		}
+
+		int arity = ConstantEvaluator.arity(inst);
+		InstructionHandle start = end;
+		if (arity > 0 && depth < MAX_DEPTH) {
+			// the last operand is pushed by the expression just before the operator, the first one before that
+			ConstantValue last = register(2 * depth + 1);
+			start = operand(start, cpgen, constants, last, depth);
+			if (arity == 1) {
+				if (start != null && ConstantEvaluator.evaluate(inst, last, out)) {
+					return start;
+				}
+			} else {
+				ConstantValue first = register(2 * depth);
+				start = operand(start, cpgen, constants, first, depth);
+				if (start != null && ConstantEvaluator.evaluate(inst, first, last, out)) {
+					return start;
+				}
+			}
+		}
+
+		out.setUnknown();
+		return null;
+	}
+
+	/**
+	 * Evaluate the operand pushed just before the instruction next, if no jump can land between them.
+	 * @return the first instruction of the operand, or null if it is not constant
+	 */
+	private InstructionHandle operand(InstructionHandle next, ConstantPoolGen cpgen, ConstantSlots constants,
+									  ConstantValue out, int depth) {
+		if (next == null) return null;
+		InstructionHandle end = next.getPrev();
+		if (end == null || Instructions.hasJumpTargets(end, next)) return null;
+		return evaluateExpression(end, cpgen, constants, out, depth + 1);
+	}
+
+	/**
+	 * Fold the constant expression ending at handle, if it is an operator.
+	 * @return the instruction after the folded expression, or null if nothing was folded
+	 */
+	private InstructionHandle tryFoldExpression(InstructionHandle handle, InstructionList il, ConstantPoolGen cpgen,
+												 ConstantSlots constants, BitSet reassigned) {
+		if (ConstantEvaluator.arity(handle.getInstruction()) == 0) return null;
+
+		InstructionHandle start = evaluateExpression(handle, cpgen, constants, result, 0);
+		if (start == null) return null;
+
+		InstructionHandle nextAfter = handle.getNext();
+		// a store that is jumped to may store something else
+		boolean storeJumpedTo = nextAfter != null && Instructions.hasJumpTargets(handle, nextAfter);
+
+		replaceWithConstant(il, start, handle, result, cpgen);
+
+		if (nextAfter != null && nextAfter.getInstruction() instanceof StoreInstruction) {
+			StoreInstruction store = (StoreInstruction) nextAfter.getInstruction();
+			// a variable stored more than once only holds the result until its next store
+			if (!reassigned.get(store.getIndex()) && !storeJumpedTo) {
+				constants.put(store.getIndex(), result);
+			}
+			nextAfter = nextAfter.getNext();
+		}
+		return nextAfter;
+	}
+
+	/**
+	 * @return the variables written more than once, counting an IINC as a write
+	 */
+	private BitSet findReassignedVariables(InstructionList il) {
+		BitSet reassigned = new BitSet();
+		BitSet seenOnce = new BitSet();
+
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+
+			if (inst instanceof IINC) {
+				reassigned.set(((IINC) inst).getIndex());
+			} else if (inst instanceof StoreInstruction) {
+				int varIndex = ((StoreInstruction) inst).getIndex();
+
+				if (!seenOnce.get(varIndex)) {
+					seenOnce.set(varIndex);
+				} else {
+					reassigned.set(varIndex);
+				}
+			}
+		}
+		return reassigned;
+	}
+
+	private ConstantSlots findConstantAssignments(InstructionList il, ConstantPoolGen cpgen, int maxLocals,
+												  BitSet reassigned) {
+		ConstantSlots constants = new ConstantSlots(maxLocals);
+		ConstantValue value = new ConstantValue();
+
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			InstructionHandle next = handle.getNext();
+			if (next == null) continue;
+
+			Instruction nextInst = next.getInstruction();
+
+			if ((inst instanceof LDC || inst instanceof LDC2_W) && value.load(inst, cpgen)
+					&& nextInst instanceof StoreInstruction && !Instructions.hasJumpTargets(handle, next)) {
+				int varIndex = ((StoreInstruction) nextInst).getIndex();
+				if (!reassigned.get(varIndex)) {
+					constants.put(varIndex, value);
+				}
+			}
+		}
+
+		return constants;
+	}
+
+	private boolean replaceConstantLoads(InstructionList il, ConstantPoolGen cpgen, ConstantSlots constantVars) {
+		boolean changed = false;
+		for (InstructionHandle handle = il.getStart(); handle != null; ) {
+			Instruction inst = handle.getInstruction();
+
+			if (inst instanceof LoadInstruction) {
+				int varIndex = ((LoadInstruction) inst).getIndex();
+				if (constantVars.get(varIndex, result)) {
+					Instruction replacement = Instructions.createConstantInstruction(result, cpgen);
+
+					try {
+						InstructionHandle newHandle = il.insert(handle, replacement);
+						Instructions.redirectTargeters(handle, newHandle);
+						il.delete(handle);
+						handle = newHandle.getNext();
+						changed = true;
+						metrics.loadReplaced();
+					} catch (TargetLostException e) {
+						System.err.println("Target lost while replacing constant load: " + e.getMessage());
+						handle = handle.getNext();
+					}
+				} else {
+					handle = handle.getNext();
+				}
+			} else {
+				handle = handle.getNext();
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,179 @@
+package comp0012.main.passes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * The basic blocks of an instruction list and the edges between them.
+ * A block starts at the first instruction, at every branch or switch target, after every branch,
+ * return or throw, and at the start of every exception handler and of every protected range, so an
+ * exception handler either covers all of a block or none of it. Every block covered by a handler has
+ * an edge to it.
+ * Positions are computed when the graph is built; the graph is not updated when the list changes.
+ */
+public final class ControlFlowGraph
+{
+	public static final class Block
+	{
+		private final int index;
+		private final InstructionHandle start;
+		private InstructionHandle end;
+		private final List<Block> successors = new ArrayList<>(2);
+		private final List<Block> predecessors = new ArrayList<>(2);
+		private final List<CodeExceptionGen> handlers = new ArrayList<>(0);
+
+		private Block(int index, InstructionHandle start) {
+			this.index = index;
+			this.start = start;
+		}
+
+		/**
+		 * @return position of the block in getBlocks(), the entry block being 0
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public InstructionHandle getStart() {
+			return start;
+		}
+
+		public InstructionHandle getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return the blocks control can pass to, including exception handlers
+		 */
+		public List<Block> getSuccessors() {
+			return Collections.unmodifiableList(successors);
+		}
+
+		public List<Block> getPredecessors() {
+			return Collections.unmodifiableList(predecessors);
+		}
+
+		/**
+		 * @return the exception handlers whose protected range covers this block
+		 */
+		public List<CodeExceptionGen> getHandlers() {
+			return Collections.unmodifiableList(handlers);
+		}
+
+		private void addSuccessor(Block block) {
+			if (block != null && !successors.contains(block)) {
+				successors.add(block);
+				block.predecessors.add(this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "B" + index + "[" + start.getPosition() + ".." + end.getPosition() + "]";
+		}
+	}
+
+	private final List<Block> blocks = new ArrayList<>();
+	private final Map<InstructionHandle, Block> blockStarts = new HashMap<>();
+
+	public ControlFlowGraph(InstructionList il, CodeExceptionGen[] handlers) {
+		il.setPositions(true);
+		if (il.getStart() == null) return;
+
+		Set<InstructionHandle> leaders = new HashSet<>();
+		leaders.add(il.getStart());
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof BranchInstruction) {
+				leaders.add(((BranchInstruction) inst).getTarget());
+				if (inst instanceof Select) {
+					for (InstructionHandle target : ((Select) inst).getTargets()) {
+						leaders.add(target);
+					}
+				}
+			}
+			if (endsBlock(inst) && handle.getNext() != null) {
+				leaders.add(handle.getNext());
+			}
+		}
+		for (CodeExceptionGen handler : handlers) {
+			leaders.add(handler.getHandlerPC());
+			leaders.add(handler.getStartPC());
+			if (handler.getEndPC().getNext() != null) {
+				leaders.add(handler.getEndPC().getNext());
+			}
+		}
+
+		Block current = null;
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			if (leaders.contains(handle)) {
+				current = new Block(blocks.size(), handle);
+				blocks.add(current);
+				blockStarts.put(handle, current);
+			}
+			current.end = handle;
+		}
+
+		for (Block block : blocks) {
+			InstructionHandle end = block.end;
+			Instruction inst = end.getInstruction();
+			if (inst instanceof BranchInstruction) {
+				block.addSuccessor(blockStarts.get(((BranchInstruction) inst).getTarget()));
+				if (inst instanceof Select) {
+					for (InstructionHandle target : ((Select) inst).getTargets()) {
+						block.addSuccessor(blockStarts.get(target));
+					}
+				}
+			}
+			if (!(inst instanceof GotoInstruction || inst instanceof Select || inst instanceof ReturnInstruction
+					|| inst instanceof ATHROW || inst instanceof RET)) {
+				block.addSuccessor(blockStarts.get(end.getNext()));
+			}
+		}
+
+		for (CodeExceptionGen handler : handlers) {
+			int from = handler.getStartPC().getPosition();
+			int to = handler.getEndPC().getPosition();
+			Block handlerBlock = blockStarts.get(handler.getHandlerPC());
+			for (Block block : blocks) {
+				if (block.start.getPosition() >= from && block.start.getPosition() <= to) {
+					block.handlers.add(handler);
+					block.addSuccessor(handlerBlock);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if control does not simply continue with the next instruction
+	 */
+	private static boolean endsBlock(Instruction inst) {
+		return inst instanceof BranchInstruction || inst instanceof ReturnInstruction
+				|| inst instanceof ATHROW || inst instanceof RET;
+	}
+
+	/**
+	 * @return the blocks in instruction order, the entry block first
+	 */
+	public List<Block> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	public Block getEntry() {
+		return blocks.isEmpty() ? null : blocks.get(0);
+	}
+
+	/**
+	 * @return the block starting at the instruction, or null if a block does not start there
+	 */
+	public Block blockAt(InstructionHandle start) {
+		return blockStarts.get(start);
+	}
+}
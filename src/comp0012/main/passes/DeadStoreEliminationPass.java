@@ -0,0 +1,188 @@
+package comp0012.main.passes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Removes stores and increments of local variables that Liveness shows are never read again, together
+ * with the side-effect-free instructions that only computed the stored value. The remaining variables
+ * are then renumbered to close the slots nothing uses any more, so the method needs fewer locals.
+ */
+public class DeadStoreEliminationPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+
+	@Override
+	public String name() {
+		return "deadstore";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		Liveness liveness = Liveness.analyse(mg);
+		if (liveness == null) return false;
+
+		List<InstructionHandle> deadStores = new ArrayList<>();
+		liveness.forEachInstruction((handle, liveAfter) -> {
+			Instruction inst = handle.getInstruction();
+			if ((inst instanceof StoreInstruction || inst instanceof IINC)
+					&& !liveAfter.get(((LocalVariableInstruction) inst).getIndex())) {
+				deadStores.add(handle);
+			}
+		});
+
+		for (InstructionHandle store : deadStores) {
+			removeStore(mg, cpgen, store);
+		}
+		boolean modified = !deadStores.isEmpty();
+		modified |= renumberLocals(mg, cpgen);
+		mg.getInstructionList().setPositions(true);
+		return modified;
+	}
+
+	/**
+	 * Replace the store by a pop of its value, then remove that pop together with the instructions
+	 * that pushed the value for as long as they have no side effects
+	 */
+	private void removeStore(MethodGen mg, ConstantPoolGen cpgen, InstructionHandle store) {
+		Instruction inst = store.getInstruction();
+		metrics.instructionsRemoved(1);
+		if (inst instanceof IINC) {
+			Instructions.replace(mg, store, store, new InstructionList());
+			return;
+		}
+
+		InstructionList pop = new InstructionList(inst.consumeStack(cpgen) == 2 ? new POP2() : new POP());
+		InstructionHandle handle = Instructions.replace(mg, store, store, pop);
+		while (handle != null && (handle.getInstruction() instanceof POP || handle.getInstruction() instanceof POP2)) {
+			InstructionHandle producer = handle.getPrev();
+			if (producer == null || Instructions.hasJumpTargets(producer, handle)) return;
+			Instruction produced = producer.getInstruction();
+			if (!isPure(produced, cpgen)
+					|| produced.produceStack(cpgen) != handle.getInstruction().consumeStack(cpgen)) return;
+
+			// pop the operands of the producer instead, topmost first
+			InstructionList operands = new InstructionList();
+			for (int i = ConstantEvaluator.arity(produced) - 1; i >= 0; i--) {
+				operands.append(ConstantEvaluator.size(ConstantEvaluator.operandType(produced, i)) == 2
+						? new POP2() : new POP());
+			}
+			metrics.instructionsRemoved(2 - operands.getLength());
+			handle = Instructions.replace(mg, producer, handle, operands);
+		}
+	}
+
+	/**
+	 * @return true if the instruction only pushes a value computed from its operands, without side effects
+	 * or exceptions
+	 */
+	private static boolean isPure(Instruction inst, ConstantPoolGen cpgen) {
+		if (inst instanceof LoadInstruction || inst instanceof ConstantPushInstruction || inst instanceof ACONST_NULL) {
+			return true;
+		}
+		if (inst instanceof LDC) {
+			// class constants may fail to resolve
+			return ((LDC) inst).getType(cpgen) != Type.CLASS;
+		}
+		if (inst instanceof LDC2_W) {
+			return true;
+		}
+		switch (inst.getOpcode()) {
+			case Constants.IDIV:
+			case Constants.IREM:
+			case Constants.LDIV:
+			case Constants.LREM:
+				return false;
+			default:
+				return ConstantEvaluator.arity(inst) > 0;
+		}
+	}
+
+	/**
+	 * Close the gaps left by local variable slots that no instruction uses. Slots that stay in use keep
+	 * their order, so the two slots of a long or double stay adjacent.
+	 */
+	private boolean renumberLocals(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+		int firstLocal = mg.isStatic() ? 0 : 1;
+		for (Type type : mg.getArgumentTypes()) {
+			firstLocal += type.getSize();
+		}
+
+		boolean[] used = new boolean[Math.max(mg.getMaxLocals(), firstLocal) + 2];
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof LocalVariableInstruction) {
+				int slot = ((LocalVariableInstruction) inst).getIndex();
+				int size = inst instanceof IINC ? 1 : ((LocalVariableInstruction) inst).getType(cpgen).getSize();
+				if (slot + size > used.length) {
+					used = Arrays.copyOf(used, slot + size);
+				}
+				for (int i = 0; i < size; i++) {
+					used[slot + i] = true;
+				}
+			}
+		}
+
+		int[] renumbered = new int[used.length];
+		int next = firstLocal;
+		boolean changed = false;
+		for (int slot = 0; slot < used.length; slot++) {
+			if (slot < firstLocal) {
+				renumbered[slot] = slot;
+			} else if (used[slot]) {
+				changed |= next != slot;
+				renumbered[slot] = next++;
+			} else {
+				renumbered[slot] = -1;
+			}
+		}
+
+		boolean removedVariables = false;
+		for (LocalVariableGen variable : mg.getLocalVariables()) {
+			int slot = variable.getIndex();
+			if (slot >= firstLocal && (slot >= used.length || !used[slot])) {
+				mg.removeLocalVariable(variable);
+				removedVariables = true;
+			} else if (slot >= firstLocal) {
+				variable.setIndex(renumbered[slot]);
+			}
+		}
+		if (!changed) return removedVariables;
+
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (!(inst instanceof LocalVariableInstruction)) continue;
+			int slot = renumbered[((LocalVariableInstruction) inst).getIndex()];
+			if (slot == ((LocalVariableInstruction) inst).getIndex()) continue;
+			// short forms such as ILOAD_1 may be shared, so replace the instruction instead of changing it
+			if (inst instanceof IINC) {
+				handle.setInstruction(new IINC(slot, ((IINC) inst).getIncrement()));
+			} else if (inst instanceof LoadInstruction) {
+				handle.setInstruction(InstructionFactory.createLoad(((LoadInstruction) inst).getType(cpgen), slot));
+			} else {
+				handle.setInstruction(InstructionFactory.createStore(((StoreInstruction) inst).getType(cpgen), slot));
+			}
+		}
+		// the generic signatures of the variables are keyed by their old slots
+		for (Attribute attribute : mg.getCodeAttributes()) {
+			if (attribute instanceof LocalVariableTypeTable) {
+				mg.removeCodeAttribute(attribute);
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,301 @@
+package comp0012.main.passes;
+
+import java.util.BitSet;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Folds variables whose value changes during the method by tracking the most
+ * recent assignment before each load.
+ * Only the method's own STOREs and IINCs write its local variables. A call can change fields, array
+ * elements and whatever else it reaches, none of which this pass tracks, so constants in locals stay
+ * known across calls and the arguments of a call are folded like any other operand.
+ * All lookups use the positions computed by trackVariableAssignments; the instruction
+ * list is only renumbered when the stores are tracked again.
+ */
+public class DynamicVariableFoldPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private final ConstantValue value = new ConstantValue();
+	private final ConstantValue first = new ConstantValue();
+	private final ConstantValue second = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "dynfold";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+
+		// Positions only order the assignments along one path, so leave branching code to sccp
+		if (mg.getExceptionHandlers().length > 0 || containsBranches(il)) {
+			return false;
+		}
+
+		VariableStates variableStates = new VariableStates();
+		trackVariableAssignments(il, cpgen, variableStates);
+
+		boolean modified = false;
+		boolean changed;
+		int maxPasses = 5;
+		int pass = 0;
+
+		do {
+			changed = false;
+
+			if (replaceVariableLoadsWithDynamicConstants(il, cpgen, variableStates)) {
+				changed = true;
+			}
+
+			if (foldDynamicExpressions(il, cpgen, variableStates)) {
+				changed = true;
+			}
+
+			if (changed) {
+				modified = true;
+				variableStates.clear();
+				trackVariableAssignments(il, cpgen, variableStates);
+			}
+
+			pass++;
+		} while (changed && pass < maxPasses);
+
+		return modified;
+	}
+
+	// Track variable assignments and their values
+	private void trackVariableAssignments(InstructionList il, ConstantPoolGen cpgen,
+										  VariableStates variableStates) {
+		il.setPositions(true);
+
+		// Stores are visited in position order, which is the order VariableStates needs
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+
+			if (inst instanceof IINC) {
+				trackIncrement((IINC) inst, handle.getPosition(), variableStates);
+				continue;
+			}
+			if (!(inst instanceof StoreInstruction)) continue;
+
+			int varIndex = ((StoreInstruction) inst).getIndex();
+			int position = handle.getPosition();
+
+			// Get the instruction that produces the value
+			InstructionHandle prev = handle.getPrev();
+			if (prev == null) continue;
+
+			value.setUnknown();
+			BitSet dependencies = null;
+			Instruction prevInst = prev.getInstruction();
+			int arity = ConstantEvaluator.arity(prevInst);
+
+			if (prevInst instanceof LoadInstruction) {
+				// Loading from another variable depends on it even if its value is unknown
+				dependencies = new BitSet();
+				if (!Instructions.hasJumpTargets(prev, handle)) {
+					storedOperand(prev, position, cpgen, variableStates, dependencies, value);
+				}
+			} else if (arity == 2) {
+				InstructionHandle op1Handle = prev.getPrev();
+				InstructionHandle op2Handle = (op1Handle != null) ? op1Handle.getPrev() : null;
+
+				if (op1Handle != null && op2Handle != null && !Instructions.hasJumpTargets(op2Handle, handle)) {
+					BitSet deps = new BitSet();
+					// op2Handle pushed the first operand, op1Handle the second
+					if (storedOperand(op2Handle, position, cpgen, variableStates, deps, first)
+							&& storedOperand(op1Handle, position, cpgen, variableStates, deps, second)
+							// Note: For subtraction and division the order matters.
+							&& ConstantEvaluator.evaluate(prevInst, first, second, value)) {
+						dependencies = deps;
+					}
+				}
+			} else if (arity == 1) {
+				InstructionHandle opHandle = prev.getPrev();
+
+				if (opHandle != null && !Instructions.hasJumpTargets(opHandle, handle)) {
+					BitSet deps = new BitSet();
+					if (storedOperand(opHandle, position, cpgen, variableStates, deps, first)
+							&& ConstantEvaluator.evaluate(prevInst, first, value)) {
+						dependencies = deps;
+					}
+				}
+			} else if (!Instructions.hasJumpTargets(prev, handle)) {
+				value.load(prevInst, cpgen);
+			}
+
+			variableStates.add(varIndex, position, value, dependencies);
+		}
+	}
+
+	/**
+	 * An IINC stores the slot's previous value plus a constant, computed from the same variables
+	 */
+	private void trackIncrement(IINC iinc, int position, VariableStates variableStates) {
+		int slot = iinc.getIndex();
+		BitSet dependencies = null;
+		if (loadedValue(slot, position, variableStates, value) && value.getTag() == ConstantValue.INT) {
+			dependencies = variableStates.dependsOn(slot, variableStates.mostRecent(slot, position));
+			value.setInt(value.intValue() + iinc.getIncrement());
+		} else {
+			value.setUnknown();
+		}
+		variableStates.add(slot, position, value, dependencies);
+	}
+
+	/**
+	 * Value of an operand of a store at the given position: a constant, or the most recent
+	 * value of a loaded variable. Loaded slots and their dependencies are added to deps.
+	 * @return false, leaving out unknown, if the operand is not a known constant
+	 */
+	private boolean storedOperand(InstructionHandle handle, int position, ConstantPoolGen cpgen,
+								  VariableStates variableStates, BitSet deps, ConstantValue out) {
+		Instruction inst = handle.getInstruction();
+		if (!(inst instanceof LoadInstruction)) {
+			return out.load(inst, cpgen);
+		}
+		int idx = ((LoadInstruction) inst).getIndex();
+		deps.set(idx);
+		int mostRecent = variableStates.mostRecent(idx, position);
+		if (mostRecent < 0) {
+			out.setUnknown();
+			return false;
+		}
+		if (!variableStates.value(idx, mostRecent, out)) return false;
+		BitSet sourceDeps = variableStates.dependsOn(idx, mostRecent);
+		if (sourceDeps != null) deps.or(sourceDeps);
+		return true;
+	}
+
+	private boolean replaceVariableLoadsWithDynamicConstants(InstructionList il, ConstantPoolGen cpgen,
+															 VariableStates variableStates) {
+		boolean changed = false;
+
+		for (InstructionHandle handle = il.getStart(); handle != null;) {
+			InstructionHandle nextHandle = handle.getNext();
+			Instruction inst = handle.getInstruction();
+
+			if (inst instanceof LoadInstruction) {
+				int varIndex = ((LoadInstruction) inst).getIndex();
+				int position = handle.getPosition();
+				if (loadedValue(varIndex, position, variableStates, value)) {
+					// Replace with appropriate constant instruction
+					Instruction replacement = Instructions.createConstantInstruction(value, cpgen);
+
+					try {
+						InstructionHandle newHandle = il.insert(handle, replacement);
+						Instructions.redirectTargeters(handle, newHandle);
+						il.delete(handle);
+						handle = newHandle;
+						changed = true;
+						metrics.loadReplaced();
+					} catch (TargetLostException e) {
+						System.err.println("Target lost during variable replacement: " + e.getMessage());
+					}
+				}
+			}
+			handle = nextHandle;
+		}
+		return changed;
+	}
+
+	/**
+	 * Copy the value a load at the given position reads into out, if the most recent store to the slot
+	 * is a known constant and none of the variables it was computed from changed in between.
+	 * @return false, leaving out unknown, otherwise
+	 */
+	private boolean loadedValue(int varIndex, int position, VariableStates variableStates, ConstantValue out) {
+		int mostRecent = variableStates.mostRecent(varIndex, position);
+		if (mostRecent >= 0 && variableStates.value(varIndex, mostRecent, out)) {
+			BitSet deps = variableStates.dependsOn(varIndex, mostRecent);
+			if (variableStates.noneReassigned(deps, variableStates.position(varIndex, mostRecent), position)) {
+				return true;
+			}
+		}
+		out.setUnknown();
+		return false;
+	}
+
+	private boolean containsBranches(InstructionList il) {
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			if (handle.getInstruction() instanceof BranchInstruction) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean foldDynamicExpressions(InstructionList il, ConstantPoolGen cpgen,
+										   VariableStates variableStates) {
+		boolean changed = false;
+
+		for (InstructionHandle handle = il.getStart(); handle != null;) {
+			InstructionHandle h1 = handle;
+			InstructionHandle h2 = h1.getNext();
+			InstructionHandle h3 = (h2 != null) ? h2.getNext() : null;
+			InstructionHandle end = null;
+
+			// A unary operator applied to a single value, or a binary operator applied to two
+			if (h2 != null && ConstantEvaluator.arity(h2.getInstruction()) == 1) {
+				if (getOperandValue(h1, variableStates, cpgen, first)
+						&& ConstantEvaluator.evaluate(h2.getInstruction(), first, value)) {
+					end = h2;
+				}
+			} else if (h3 != null && ConstantEvaluator.arity(h3.getInstruction()) == 2) {
+				if (getOperandValue(h1, variableStates, cpgen, first)
+						&& getOperandValue(h2, variableStates, cpgen, second)
+						&& ConstantEvaluator.evaluate(h3.getInstruction(), first, second, value)) {
+					end = h3;
+				}
+			}
+
+			if (end == null || Instructions.hasJumpTargets(h1, end)) {
+				handle = handle.getNext();
+				continue;
+			}
+
+			try {
+				Instruction constInstr = Instructions.createConstantInstruction(value, cpgen);
+				InstructionHandle newHandle = il.insert(h1, constInstr);
+
+				for (InstructionHandle h = h1; h != end.getNext(); h = h.getNext()) {
+					Instructions.redirectTargeters(h, newHandle);
+				}
+
+				il.delete(h1, end);
+
+				// a store of the result was already tracked with the same value
+				handle = newHandle.getNext();
+				changed = true;
+				metrics.constantFolded();
+			} catch (TargetLostException e) {
+				System.err.println("Target lost during expression folding: " + e.getMessage());
+				handle = handle.getNext();
+			}
+		}
+
+		return changed;
+	}
+
+	private boolean getOperandValue(InstructionHandle handle,
+									VariableStates variableStates,
+									ConstantPoolGen cpgen,
+									ConstantValue out) {
+		Instruction inst = handle.getInstruction();
+
+		if (inst instanceof LoadInstruction) {
+			// this pass only inserts constants, so every load was numbered by trackVariableAssignments
+			return loadedValue(((LoadInstruction) inst).getIndex(), handle.getPosition(), variableStates, out);
+		}
+		return out.load(inst, cpgen);
+	}
+}
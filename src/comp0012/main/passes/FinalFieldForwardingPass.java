@@ -0,0 +1,202 @@
+package comp0012.main.passes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantMethodref;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+import org.apache.bcel.util.ByteSequence;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Replaces ALOAD_0; GETFIELD of a final instance field by its value when every constructor gives the field
+ * the same constant. A constructor either delegates to another one through this(...) and leaves the field
+ * alone, or assigns it in its straight-line start, where only the call to Object's constructor may come
+ * first; no other method may assign it. Classes with any other superclass are skipped, because a superclass
+ * constructor can call an overridden method that reads the field before it is assigned.
+ */
+public class FinalFieldForwardingPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private String className;
+	private Map<String, Number> constants = new HashMap<>();
+	private final ConstantValue value = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "finalfield";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void beginClass(ClassGen cgen) {
+		className = cgen.getClassName();
+		constants = new HashMap<>();
+		if (!cgen.getSuperclassName().equals("java.lang.Object")) return;
+		try {
+			analyse(cgen.getFields(), cgen.getMethods(), cgen.getConstantPool().getConstantPool());
+		} catch (IOException | RuntimeException e) {
+			constants.clear();
+		}
+	}
+
+	private void analyse(Field[] fields, Method[] methods, ConstantPool pool) throws IOException {
+		Map<String, String> signatures = new HashMap<>();
+		for (Field field : fields) {
+			if (!field.isStatic() && field.isFinal()) {
+				signatures.put(StaticFieldConstants.key(className, field.getName(), field.getSignature()),
+						field.getSignature());
+			}
+		}
+
+		Map<String, Number> assigned = null;
+		Set<String> excluded = new HashSet<>();
+		for (Method method : methods) {
+			Code code = method.getCode();
+			if (code == null) continue;
+			FieldStores stores = scan(code, pool, method.getName().equals("<init>"));
+			excluded.addAll(stores.otherStores);
+			if (!stores.initialising) continue;
+			if (assigned == null) {
+				assigned = new HashMap<>(stores.constants);
+			} else {
+				assigned.entrySet().removeIf(e -> !e.getValue().equals(stores.constants.get(e.getKey())));
+			}
+		}
+		if (assigned == null) return;
+		for (Map.Entry<String, Number> e : assigned.entrySet()) {
+			String signature = signatures.get(e.getKey());
+			if (signature != null && StaticFieldConstants.matches(signature, e.getValue())
+					&& !excluded.contains(e.getKey())) {
+				constants.put(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * What one method does to the fields of the class
+	 */
+	private static class FieldStores
+	{
+		/** true for a constructor that calls Object's constructor rather than another one of the class */
+		boolean initialising;
+		/** constants assigned in the straight-line start of an initialising constructor */
+		final Map<String, Number> constants = new HashMap<>();
+		/** every other field of the class assigned by the method */
+		final Set<String> otherStores = new HashSet<>();
+	}
+
+	private FieldStores scan(Code code, ConstantPool pool, boolean isConstructor) throws IOException {
+		FieldStores result = new FieldStores();
+		boolean prefix = isConstructor;
+		// the instructions seen since the last aload_0 that started an assignment
+		int pending = 0;
+		Number pushed = null;
+		try (ByteSequence bytes = new ByteSequence(code.getCode())) {
+			while (bytes.available() > 0) {
+				Instruction inst = Instruction.readInstruction(bytes);
+				short opcode = inst.getOpcode();
+				String stored = opcode == Constants.PUTFIELD
+						? StaticFieldConstants.ownField((CPInstruction) inst, className, pool) : null;
+				if (opcode == Constants.INVOKESPECIAL && isConstructor) {
+					String owner = constructorOwner((CPInstruction) inst, pool);
+					if ("java.lang.Object".equals(owner)) {
+						result.initialising = true;
+					}
+				}
+
+				if (prefix && pending == 0 && opcode == Constants.ALOAD_0) {
+					pending = 1;
+					continue;
+				}
+				if (prefix && pending == 1 && opcode == Constants.INVOKESPECIAL
+						&& "java.lang.Object".equals(constructorOwner((CPInstruction) inst, pool))) {
+					pending = 0;
+					continue;
+				}
+				if (prefix && pending == 1 && (inst instanceof LoadInstruction
+						|| (pushed = StaticFieldConstants.constant(inst, pool)) != null)) {
+					pending = 2;
+					continue;
+				}
+				if (prefix && pending == 2 && stored != null) {
+					if (pushed != null && !result.constants.containsKey(stored)) {
+						result.constants.put(stored, pushed);
+					} else {
+						result.otherStores.add(stored);
+					}
+					pending = 0;
+					pushed = null;
+					continue;
+				}
+				prefix = false;
+				if (stored != null) {
+					result.otherStores.add(stored);
+				}
+			}
+		}
+		if (!result.initialising) {
+			// a delegating constructor, or some other method, that also assigned constants
+			result.otherStores.addAll(result.constants.keySet());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the class whose constructor an INVOKESPECIAL calls, or null if it calls another method
+	 */
+	private static String constructorOwner(CPInstruction inst, ConstantPool pool) {
+		ConstantMethodref ref = (ConstantMethodref) pool.getConstant(inst.getIndex(), Constants.CONSTANT_Methodref);
+		ConstantNameAndType nat = (ConstantNameAndType) pool.getConstant(ref.getNameAndTypeIndex(),
+				Constants.CONSTANT_NameAndType);
+		return nat.getName(pool).equals("<init>") ? ref.getClass(pool) : null;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		if (mg.isStatic() || constants.isEmpty() || Instructions.storesThis(mg)) return false;
+		boolean modified = false;
+		for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; ) {
+			InstructionHandle next = handle.getNext();
+			if (handle.getInstruction() instanceof ALOAD && ((ALOAD) handle.getInstruction()).getIndex() == 0
+					&& next != null && next.getInstruction() instanceof GETFIELD
+					&& !Instructions.hasJumpTargets(handle, next)) {
+				GETFIELD get = (GETFIELD) next.getInstruction();
+				ReferenceType owner = get.getReferenceType(cpgen);
+				Number constant = owner instanceof ObjectType ? constants.get(StaticFieldConstants.key(
+						((ObjectType) owner).getClassName(), get.getFieldName(cpgen), get.getSignature(cpgen))) : null;
+				if (constant != null) {
+					InstructionHandle after = next.getNext();
+					Instructions.replace(mg, handle, next,
+							new InstructionList(Instructions.createConstantInstruction(toValue(constant), cpgen)));
+					metrics.loadReplaced();
+					modified = true;
+					next = after;
+				}
+			}
+			handle = next;
+		}
+		return modified;
+	}
+
+	private ConstantValue toValue(Number constant) {
+		if (constant instanceof Long) return value.setLong(constant.longValue());
+		if (constant instanceof Float) return value.setFloat(constant.floatValue());
+		if (constant instanceof Double) return value.setDouble(constant.doubleValue());
+		return value.setInt(constant.intValue());
+	}
+}
@@ -0,0 +1,85 @@
+package comp0012.main.passes;
+
+import java.io.IOException;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.*;
+import org.apache.bcel.generic.ArithmeticInstruction;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.ConversionInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.LocalVariableInstruction;
+import org.apache.bcel.generic.ReturnInstruction;
+import org.apache.bcel.generic.StackInstruction;
+import org.apache.bcel.util.ByteSequence;
+
+/**
+ * Decides which methods the inline pass may copy into their callers: methods no subclass can override,
+ * of at most MAX_SIZE bytes of straight-line code that only computes with its local variables and
+ * constants and returns at the end, so that a copy means the same in any class. Calls in the body are
+ * allowed; the inline pass copies their targets along or leaves the outer call alone.
+ * Only reads class file structures, so any number of threads may scan classes with the same copy of BCEL.
+ */
+public final class InlineCandidates
+{
+	/** Largest body copied, in bytes of bytecode, the same as HotSpot's MaxInlineSize */
+	public static final int MAX_SIZE = 35;
+
+	private InlineCandidates() {
+	}
+
+	/**
+	 * @param finalClass true if the method's class is final, so that none of its methods can be overridden
+	 */
+	public static boolean isInlinable(Method method, boolean finalClass, ConstantPool pool) {
+		if (method.isAbstract() || method.isNative() || method.isSynchronized() || method.getName().startsWith("<")) {
+			return false;
+		}
+		if (!method.isStatic() && !method.isPrivate() && !method.isFinal() && !finalClass) return false;
+		Code code = method.getCode();
+		if (code == null || code.getCode().length > MAX_SIZE || code.getExceptionTable().length > 0) return false;
+		try (ByteSequence bytes = new ByteSequence(code.getCode())) {
+			while (bytes.available() > 0) {
+				Instruction inst = Instruction.readInstruction(bytes);
+				if (inst instanceof ReturnInstruction) return bytes.available() == 0;
+				if (!isCopyable(inst, pool)) return false;
+			}
+		} catch (IOException | RuntimeException e) {
+			// a method this cannot read is not inlined
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the instruction does the same in any class: local variable access, constants,
+	 * arithmetic, comparisons, conversions, stack shuffling and calls
+	 */
+	static boolean isCopyable(Instruction inst, ConstantPool pool) {
+		if (inst instanceof LocalVariableInstruction || inst instanceof ConstantPushInstruction
+				|| inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction
+				|| inst instanceof StackInstruction) {
+			return true;
+		}
+		switch (inst.getOpcode()) {
+			case Constants.ACONST_NULL:
+			case Constants.LCMP:
+			case Constants.FCMPL:
+			case Constants.FCMPG:
+			case Constants.DCMPL:
+			case Constants.DCMPG:
+			case Constants.INVOKESTATIC:
+			case Constants.INVOKESPECIAL:
+			case Constants.INVOKEVIRTUAL:
+				return true;
+			case Constants.LDC:
+			case Constants.LDC_W:
+			case Constants.LDC2_W:
+				Constant c = pool.getConstant(((CPInstruction) inst).getIndex());
+				return c instanceof ConstantInteger || c instanceof ConstantFloat || c instanceof ConstantLong
+						|| c instanceof ConstantDouble || c instanceof ConstantString;
+			default:
+				return false;
+		}
+	}
+}
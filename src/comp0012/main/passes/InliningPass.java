@@ -0,0 +1,304 @@
+package comp0012.main.passes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Replaces calls of small methods that cannot be overridden by a copy of their body, so that the other
+ * passes can fold what the callee computes from constant arguments. InlineCandidates decides which
+ * methods qualify: those of the class itself, and those of the rest of the input that Main lists in
+ * ProgramInfo, whose class files are read through its class loader.
+ * The arguments are stored into fresh local variables for the copy, and the receiver of an instance
+ * method is checked for null unless it is this, so the copy throws where the call would have. Calls in the copied body
+ * are inlined along with it up to MAX_DEPTH levels, never into themselves, and a method may only grow
+ * to twice its original size, or MIN_GROWTH bytes more if that is larger, and never past
+ * HUGE_METHOD_LIMIT, beyond which HotSpot would not compile it.
+ */
+public class InliningPass implements OptimizationPass
+{
+	public static final int MAX_DEPTH = 3;
+	public static final int MIN_GROWTH = 64;
+	public static final int HUGE_METHOD_LIMIT = 8000;
+
+	private PassMetrics metrics = new PassMetrics();
+	private ProgramInfo program = ProgramInfo.EMPTY;
+	private String className;
+	private final Map<String, Method> ownCandidates = new HashMap<>();
+	private ConstantPoolGen ownPool;
+	private final Map<String, JavaClass> loaded = new HashMap<>();
+	private final Map<String, ConstantPoolGen> loadedPools = new HashMap<>();
+	private final Map<String, Integer> originalSizes = new HashMap<>();
+	private final ConstantValue value = new ConstantValue();
+	private int nextLocal;
+
+	@Override
+	public String name() {
+		return "inline";
+	}
+
+	@Override
+	public void setProgram(ProgramInfo program) {
+		this.program = program;
+	}
+
+	@Override
+	public boolean usesProgram() {
+		return true;
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void beginClass(ClassGen cgen) {
+		className = cgen.getClassName();
+		ownPool = cgen.getConstantPool();
+		ownCandidates.clear();
+		for (Method method : cgen.getMethods()) {
+			if (InlineCandidates.isInlinable(method, cgen.isFinal(), ownPool.getConstantPool())) {
+				ownCandidates.put(ProgramInfo.methodKey(className, method.getName(), method.getSignature()), method);
+			}
+		}
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+		int size = size(il);
+		int original = originalSizes.computeIfAbsent(mg.getName() + mg.getSignature(), k -> size);
+		int limit = Math.min(HUGE_METHOD_LIMIT, original + Math.max(original, MIN_GROWTH));
+		String self = ProgramInfo.methodKey(className, mg.getName(), mg.getSignature());
+
+		// every copy stores before it loads, so copies at different calls can share local variables
+		mg.setMaxLocals();
+		int locals = mg.getMaxLocals();
+		boolean modified = false;
+		int grown = size;
+		for (InstructionHandle handle = il.getStart(); handle != null; ) {
+			InstructionHandle next = handle.getNext();
+			if (handle.getInstruction() instanceof InvokeInstruction) {
+				nextLocal = locals;
+				Deque<String> inlining = new ArrayDeque<>();
+				inlining.push(self);
+				InstructionList body = expand((InvokeInstruction) handle.getInstruction(), cpgen, cpgen, inlining,
+						receiverIsThis(mg, handle, cpgen));
+				if (body != null && grown + size(body) - handle.getInstruction().getLength() <= limit) {
+					grown += size(body) - handle.getInstruction().getLength();
+					Instructions.replace(mg, handle, handle, body);
+					mg.setMaxLocals(Math.max(mg.getMaxLocals(), nextLocal));
+					metrics.callInlined();
+					modified = true;
+				}
+			}
+			handle = next;
+		}
+		return modified;
+	}
+
+	/**
+	 * Copy the body of the method a call invokes, for the caller's constant pool
+	 * @param callerPool the pool the call refers to
+	 * @param inlining the methods being copied, innermost first
+	 * @param receiverIsThis true if the call is known to be on this, which cannot be null
+	 * @return the instructions taking the call's operands off the stack and leaving its result, or null if
+	 * the call cannot be inlined
+	 */
+	private InstructionList expand(InvokeInstruction invoke, ConstantPoolGen callerPool, ConstantPoolGen cpgen,
+								   Deque<String> inlining, boolean receiverIsThis) {
+		if (!(invoke instanceof INVOKESTATIC || invoke instanceof INVOKESPECIAL || invoke instanceof INVOKEVIRTUAL)) {
+			return null;
+		}
+		ReferenceType ownerType = invoke.getReferenceType(callerPool);
+		if (!(ownerType instanceof ObjectType)) return null;
+		String owner = ((ObjectType) ownerType).getClassName();
+		String name = invoke.getMethodName(callerPool);
+		String signature = invoke.getSignature(callerPool);
+		String key = ProgramInfo.methodKey(owner, name, signature);
+		if (inlining.size() > MAX_DEPTH || inlining.contains(key)) return null;
+
+		Method callee;
+		ConstantPoolGen calleePool;
+		if (owner.equals(className)) {
+			callee = ownCandidates.get(key);
+			calleePool = ownPool;
+		} else if (program.isInlinable(owner, name, signature)) {
+			callee = find(owner, name, signature);
+			calleePool = loadedPools.get(owner);
+		} else {
+			return null;
+		}
+		if (callee == null || callee.isStatic() != (invoke instanceof INVOKESTATIC)) return null;
+
+		InstructionList body = new InstructionList();
+		int base = nextLocal;
+		Code code = callee.getCode();
+		nextLocal += code.getMaxLocals();
+		storeArguments(callee, signature, base, receiverIsThis, body, cpgen);
+
+		inlining.push(key);
+		try {
+			InstructionList calleeCode = new InstructionList(code.getCode());
+			int depth = 0;
+			for (InstructionHandle h = calleeCode.getStart(); h != null; h = h.getNext()) {
+				Instruction inst = h.getInstruction();
+				if (inst instanceof ReturnInstruction) {
+					// whatever else is left on the stack would stay behind in the caller
+					return depth == Type.getReturnType(signature).getSize() ? body : null;
+				}
+				depth -= inst.consumeStack(calleePool);
+				if (depth < 0) return null;
+				depth += inst.produceStack(calleePool);
+				if (!copy(inst, base, calleePool, cpgen, body, inlining)) return null;
+			}
+			return null;
+		} finally {
+			inlining.pop();
+		}
+	}
+
+	/**
+	 * @return true if the instance method calls a method of this: the arguments are each pushed by a
+	 * single instruction after an ALOAD_0, and slot 0 is never assigned
+	 */
+	private static boolean receiverIsThis(MethodGen mg, InstructionHandle call, ConstantPoolGen cpgen) {
+		if (mg.isStatic()) return false;
+		InstructionHandle receiver = call;
+		int arguments = Type.getArgumentTypes(((InvokeInstruction) call.getInstruction()).getSignature(cpgen)).length;
+		for (int i = 0; i <= arguments; i++) {
+			receiver = receiver.getPrev();
+			if (receiver == null || receiver.getInstruction().consumeStack(cpgen) != 0
+					|| receiver.getInstruction().produceStack(cpgen) == 0) {
+				return false;
+			}
+		}
+		Instruction inst = receiver.getInstruction();
+		return inst instanceof ALOAD && ((ALOAD) inst).getIndex() == 0
+				&& !Instructions.hasJumpTargets(receiver, call) && !Instructions.storesThis(mg);
+	}
+
+	/**
+	 * Store the arguments on the stack into the copy's local variables, and check the receiver of an
+	 * instance method for null with getClass() as javac does
+	 */
+	private void storeArguments(Method callee, String signature, int base, boolean receiverIsThis,
+								InstructionList body, ConstantPoolGen cpgen) {
+		Type[] types = Type.getArgumentTypes(signature);
+		int[] slots = new int[types.length];
+		int slot = base + (callee.isStatic() ? 0 : 1);
+		for (int i = 0; i < types.length; i++) {
+			slots[i] = slot;
+			slot += types[i].getSize();
+		}
+		for (int i = types.length - 1; i >= 0; i--) {
+			body.append(InstructionFactory.createStore(types[i], slots[i]));
+		}
+		if (callee.isStatic()) return;
+		boolean readsThis = readsThis(callee.getCode());
+		if (!receiverIsThis) {
+			if (readsThis) body.append(InstructionConstants.DUP);
+			body.append(new INVOKEVIRTUAL(cpgen.addMethodref("java.lang.Object", "getClass", "()Ljava/lang/Class;")));
+			body.append(InstructionConstants.POP);
+			if (!readsThis) return;
+		}
+		body.append(readsThis ? InstructionFactory.createStore(Type.OBJECT, base) : InstructionConstants.POP);
+	}
+
+	/**
+	 * Append a copy of one instruction of the callee, moved to its local variables and the caller's pool
+	 * @return false if the instruction cannot be copied
+	 */
+	private boolean copy(Instruction inst, int base, ConstantPoolGen calleePool, ConstantPoolGen cpgen,
+						 InstructionList body, Deque<String> inlining) {
+		if (inst instanceof IINC) {
+			body.append(new IINC(base + ((IINC) inst).getIndex(), ((IINC) inst).getIncrement()));
+		} else if (inst instanceof LoadInstruction) {
+			LoadInstruction load = (LoadInstruction) inst;
+			body.append(InstructionFactory.createLoad(load.getType(calleePool), base + load.getIndex()));
+		} else if (inst instanceof StoreInstruction) {
+			StoreInstruction store = (StoreInstruction) inst;
+			body.append(InstructionFactory.createStore(store.getType(calleePool), base + store.getIndex()));
+		} else if (inst instanceof LDC || inst instanceof LDC_W || inst instanceof LDC2_W) {
+			Constant c = calleePool.getConstant(((CPInstruction) inst).getIndex());
+			if (c instanceof ConstantString) {
+				body.append(new LDC(cpgen.addString(((ConstantString) c).getBytes(calleePool.getConstantPool()))));
+			} else if (value.load(inst, calleePool)) {
+				body.append(Instructions.createConstantInstruction(value, cpgen));
+			} else {
+				return false;
+			}
+		} else if (inst instanceof InvokeInstruction) {
+			InstructionList nested = expand((InvokeInstruction) inst, calleePool, cpgen, inlining, false);
+			if (nested == null) return false;
+			body.append(nested);
+		} else if (inst instanceof CPInstruction || inst instanceof BranchInstruction) {
+			// InlineCandidates admits neither
+			return false;
+		} else {
+			body.append(inst.copy());
+		}
+		return true;
+	}
+
+	private static boolean readsThis(Code code) {
+		for (InstructionHandle h = new InstructionList(code.getCode()).getStart(); h != null; h = h.getNext()) {
+			if (h.getInstruction() instanceof ALOAD && ((ALOAD) h.getInstruction()).getIndex() == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the method of another class of the input, or null if its class file cannot be read
+	 */
+	private Method find(String owner, String name, String signature) {
+		JavaClass clazz = loaded.get(owner);
+		if (clazz == null && !loaded.containsKey(owner)) {
+			clazz = load(owner);
+			loaded.put(owner, clazz);
+			if (clazz != null) {
+				loadedPools.put(owner, new ConstantPoolGen(clazz.getConstantPool()));
+			}
+		}
+		if (clazz == null) return null;
+		for (Method method : clazz.getMethods()) {
+			if (method.getName().equals(name) && method.getSignature().equals(signature)) {
+				// the class loader may find another copy of the class than the one Main scanned
+				return InlineCandidates.isInlinable(method, clazz.isFinal(), clazz.getConstantPool()) ? method : null;
+			}
+		}
+		return null;
+	}
+
+	private JavaClass load(String owner) {
+		String resource = owner.replace('.', '/') + ".class";
+		try (InputStream in = program.getClassLoader().getResourceAsStream(resource)) {
+			return in == null ? null : new ClassParser(in, resource).parse();
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the length of the instructions in bytes
+	 */
+	private static int size(InstructionList il) {
+		if (il.isEmpty()) return 0;
+		il.setPositions();
+		return il.getEnd().getPosition() + il.getEnd().getInstruction().getLength();
+	}
+}
@@ -0,0 +1,181 @@
+package comp0012.main.passes;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Instruction list helpers shared by the optimisation passes
+ */
+public final class Instructions
+{
+	private Instructions() {
+	}
+
+	/**
+	 * Move every branch and exception handler pointing at oldTarget to newTarget
+	 */
+	public static void redirectTargeters(InstructionHandle oldTarget, InstructionHandle newTarget) {
+		if (oldTarget.hasTargeters()) {
+			for (InstructionTargeter targeter : oldTarget.getTargeters()) {
+				targeter.updateTarget(oldTarget, newTarget);
+			}
+		}
+	}
+
+	/**
+	 * @return true if a branch or exception handler can jump to any instruction after from, up to and
+	 * including to, so the values on the stack there do not all come from the instructions before it
+	 */
+	public static boolean hasJumpTargets(InstructionHandle from, InstructionHandle to) {
+		for (InstructionHandle h = from; h != to; ) {
+			h = h.getNext();
+			if (h == null) return false;
+			if (h.hasTargeters()) {
+				for (InstructionTargeter targeter : h.getTargeters()) {
+					if (targeter instanceof BranchInstruction || targeter instanceof CodeExceptionGen) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the method reuses slot 0, so that ALOAD_0 may not load this
+	 */
+	public static boolean storesThis(MethodGen mg) {
+		for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof StoreInstruction && ((StoreInstruction) inst).getIndex() == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Replace the instructions from..to, which control must only enter at from, with the replacement.
+	 * Whatever pointed into the removed instructions moves to the replacement. If the replacement is
+	 * empty, exception and local variable ranges shrink to exclude the removed instructions, are dropped
+	 * if nothing is left of them, and everything else moves to the instruction after to.
+	 * @return the first instruction of the replacement, or the instruction after to if it is empty
+	 */
+	public static InstructionHandle replace(MethodGen mg, InstructionHandle from, InstructionHandle to,
+											InstructionList replacement) {
+		InstructionList il = mg.getInstructionList();
+		InstructionHandle first;
+		InstructionHandle last;
+		if (replacement.isEmpty()) {
+			first = to.getNext();
+			last = from.getPrev();
+		} else {
+			last = replacement.getEnd();
+			first = il.insert(from, replacement);
+		}
+
+		Set<InstructionTargeter> startsRemoved = new HashSet<>();
+		for (InstructionHandle handle = from; ; handle = handle.getNext()) {
+			if (handle.hasTargeters()) {
+				for (InstructionTargeter targeter : handle.getTargeters()) {
+					if (targeter instanceof CodeExceptionGen) {
+						CodeExceptionGen handler = (CodeExceptionGen) targeter;
+						if (handler.getHandlerPC() == handle) handler.setHandlerPC(first);
+						if (handler.getStartPC() == handle) {
+							startsRemoved.add(handler);
+							handler.setStartPC(first);
+						}
+						if (handler.getEndPC() == handle) {
+							if (replacement.isEmpty() && startsRemoved.contains(handler)) {
+								removeExceptionHandler(mg, handler);
+							} else {
+								handler.setEndPC(last);
+							}
+						}
+					} else if (targeter instanceof LocalVariableGen) {
+						LocalVariableGen variable = (LocalVariableGen) targeter;
+						if (variable.getStart() == handle) {
+							startsRemoved.add(variable);
+							variable.setStart(first);
+						}
+						if (variable.getEnd() == handle) {
+							if (replacement.isEmpty() && startsRemoved.contains(variable)) {
+								mg.removeLocalVariable(variable);
+							} else {
+								variable.setEnd(last);
+							}
+						}
+					} else if (targeter instanceof LineNumberGen && first == null) {
+						// removeLineNumber only drops it from the method, it stays a targeter of the handle
+						handle.removeTargeter(targeter);
+						mg.removeLineNumber((LineNumberGen) targeter);
+					} else {
+						targeter.updateTarget(handle, first);
+					}
+				}
+			}
+			if (handle == to) break;
+		}
+
+		try {
+			il.delete(from, to);
+		} catch (TargetLostException e) {
+			// every targeter was moved above, so this is a bug; the class is then left unoptimised
+			throw new IllegalStateException("Target lost while replacing instructions: " + e.getMessage(), e);
+		}
+		return first;
+	}
+
+	/**
+	 * Remove the handler from the method and from the targeters of the instructions it points at
+	 */
+	public static void removeExceptionHandler(MethodGen mg, CodeExceptionGen handler) {
+		handler.setStartPC(null);
+		handler.setEndPC(null);
+		handler.setHandlerPC(null);
+		mg.removeExceptionHandler(handler);
+	}
+
+	/**
+	 * @return the shortest encoding of the value: an xCONST, BIPUSH or SIPUSH where one exists,
+	 * otherwise an LDC/LDC2_W of a pool entry
+	 */
+	public static Instruction createConstantInstruction(ConstantValue value, ConstantPoolGen cpgen) {
+		switch (value.getTag()) {
+			case ConstantValue.INT:
+				int intVal = value.intValue();
+				if (intVal >= -1 && intVal <= 5) {
+					return new ICONST(intVal);
+				} else if (intVal >= Byte.MIN_VALUE && intVal <= Byte.MAX_VALUE) {
+					return new BIPUSH((byte) intVal);
+				} else if (intVal >= Short.MIN_VALUE && intVal <= Short.MAX_VALUE) {
+					return new SIPUSH((short) intVal);
+				} else {
+					return new LDC(cpgen.addInteger(intVal));
+				}
+			case ConstantValue.FLOAT:
+				// compare the bits so that -0.0f keeps its pool entry
+				float floatVal = value.floatValue();
+				if (Float.floatToRawIntBits(floatVal) == Float.floatToRawIntBits((int) floatVal)
+						&& floatVal >= 0 && floatVal <= 2) {
+					return new FCONST(floatVal);
+				}
+				return new LDC(cpgen.addFloat(floatVal));
+			case ConstantValue.LONG:
+				long longVal = value.longValue();
+				if (longVal == 0 || longVal == 1) {
+					return new LCONST(longVal);
+				}
+				return new LDC2_W(cpgen.addLong(longVal));
+			case ConstantValue.DOUBLE:
+				double doubleVal = value.doubleValue();
+				if (Double.doubleToRawLongBits(doubleVal) == Double.doubleToRawLongBits((int) doubleVal)
+						&& doubleVal >= 0 && doubleVal <= 1) {
+					return new DCONST(doubleVal);
+				}
+				return new LDC2_W(cpgen.addDouble(doubleVal));
+			default:
+				throw new IllegalArgumentException("Not a constant: " + value);
+		}
+	}
+}
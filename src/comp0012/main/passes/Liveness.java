@@ -0,0 +1,128 @@
+package comp0012.main.passes;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.passes.ControlFlowGraph.Block;
+
+/**
+ * Which local variables may still be read after each instruction, solved backwards over a ControlFlowGraph.
+ * A variable is identified by its first slot; a long or double stored at n is only live through loads of n.
+ * Any instruction of a block covered by an exception handler may throw, so the variables live on entry to
+ * the handler are live after every one of them.
+ */
+public final class Liveness
+{
+	/**
+	 * Receives every instruction with the variables live after it. The set is reused and must not be kept.
+	 */
+	public interface Visitor
+	{
+		void visit(InstructionHandle handle, BitSet liveAfter);
+	}
+
+	private final ControlFlowGraph cfg;
+	private final BitSet[] liveIn;
+	private final BitSet[] liveOut;
+
+	private Liveness(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		int blocks = cfg.getBlocks().size();
+		this.liveIn = new BitSet[blocks];
+		this.liveOut = new BitSet[blocks];
+		for (int i = 0; i < blocks; i++) {
+			liveIn[i] = new BitSet();
+			liveOut[i] = new BitSet();
+		}
+	}
+
+	/**
+	 * @return the solved analysis, or null if the method has no code or uses subroutines (JSR/RET)
+	 */
+	public static Liveness analyse(MethodGen mg) {
+		InstructionList il = mg.getInstructionList();
+		if (il == null || il.isEmpty()) return null;
+		for (InstructionHandle handle = il.getStart(); handle != null; handle = handle.getNext()) {
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof JsrInstruction || inst instanceof RET) return null;
+		}
+		Liveness liveness = new Liveness(new ControlFlowGraph(il, mg.getExceptionHandlers()));
+		liveness.solve();
+		return liveness;
+	}
+
+	public ControlFlowGraph getControlFlowGraph() {
+		return cfg;
+	}
+
+	/**
+	 * Call the visitor for every instruction, last instruction of each block first
+	 */
+	public void forEachInstruction(Visitor visitor) {
+		BitSet live = new BitSet();
+		for (Block block : cfg.getBlocks()) {
+			walk(block, live, visitor);
+		}
+	}
+
+	private void solve() {
+		List<Block> blocks = cfg.getBlocks();
+		ArrayDeque<Block> worklist = new ArrayDeque<>();
+		BitSet queued = new BitSet(blocks.size());
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			worklist.add(blocks.get(i));
+			queued.set(i);
+		}
+
+		BitSet live = new BitSet();
+		while (!worklist.isEmpty()) {
+			Block block = worklist.poll();
+			queued.clear(block.getIndex());
+
+			BitSet out = liveOut[block.getIndex()];
+			for (Block successor : block.getSuccessors()) {
+				out.or(liveIn[successor.getIndex()]);
+			}
+			walk(block, live, null);
+
+			BitSet in = liveIn[block.getIndex()];
+			if (!live.equals(in)) {
+				in.or(live);
+				for (Block predecessor : block.getPredecessors()) {
+					if (!queued.get(predecessor.getIndex())) {
+						queued.set(predecessor.getIndex());
+						worklist.add(predecessor);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Step backwards through the block from its live out set, leaving its live in set in live
+	 */
+	private void walk(Block block, BitSet live, Visitor visitor) {
+		live.clear();
+		live.or(liveOut[block.getIndex()]);
+		for (InstructionHandle handle = block.getEnd(); ; handle = handle.getPrev()) {
+			for (CodeExceptionGen handler : block.getHandlers()) {
+				live.or(liveIn[cfg.blockAt(handler.getHandlerPC()).getIndex()]);
+			}
+			if (visitor != null) {
+				visitor.visit(handle, live);
+			}
+			Instruction inst = handle.getInstruction();
+			if (inst instanceof StoreInstruction) {
+				live.clear(((StoreInstruction) inst).getIndex());
+			} else if (inst instanceof LoadInstruction) {
+				live.set(((LoadInstruction) inst).getIndex());
+			} else if (inst instanceof IINC) {
+				live.set(((IINC) inst).getIndex());
+			}
+			if (handle == block.getStart()) break;
+		}
+	}
+}
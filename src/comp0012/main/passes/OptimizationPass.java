@@ -0,0 +1,63 @@
+package comp0012.main.passes;
+
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * A transformation run by the PassManager.
+ * A new instance is created for every class, so passes may keep per-class state in fields.
+ * Custom passes need a public no-argument constructor to be selectable by class name from Main's -passes option.
+ */
+public interface OptimizationPass
+{
+	/**
+	 * @return the name used to select this pass in a pipeline
+	 */
+	String name();
+
+	/**
+	 * Called before beginClass with what the driver knows about the whole set of classes being optimised;
+	 * ProgramInfo.EMPTY when the class is optimised on its own
+	 */
+	default void setProgram(ProgramInfo program) {
+	}
+
+	/**
+	 * @return true if the pass needs the ProgramInfo of the whole input; Main only collects it, at the cost
+	 * of parsing every class first, when some pass of the pipeline does
+	 */
+	default boolean usesProgram() {
+		return false;
+	}
+
+	/**
+	 * Called once before any method of the class is transformed
+	 */
+	default void beginClass(ClassGen cgen) {
+	}
+
+	/**
+	 * Called before the first runOnMethod of every method with the counters this pass should
+	 * update for that method, e.g. PassMetrics.constantFolded()
+	 */
+	default void setMetrics(PassMetrics metrics) {
+	}
+
+	/**
+	 * Transform one method in place. The PassManager keeps calling every pass in the
+	 * pipeline until none of them reports a change.
+	 * @return true if the instruction list was modified
+	 */
+	boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen);
+
+	/**
+	 * Called once after every method of the class has reached its fixpoint
+	 * @return true if the class was modified
+	 */
+	default boolean runOnClass(ClassGen cgen) {
+		return false;
+	}
+}
@@ -0,0 +1,210 @@
+package comp0012.main.passes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+
+import comp0012.main.metrics.ClassMetrics;
+import comp0012.main.metrics.MethodMetrics;
+import comp0012.main.metrics.PassEvent;
+
+/**
+ * Runs a pipeline of OptimizationPasses over a class.
+ * The pipeline is given as a comma separated list of pass names, e.g. "constfold,dynfold,sccp,branchfold,deadstore,peephole".
+ * Every entry is either a registered name or the fully qualified name of a class implementing OptimizationPass.
+ * For each method the whole pipeline is repeated until no pass changes the method any more,
+ * or until the iteration limit is reached.
+ */
+public class PassManager
+{
+	public static final String DEFAULT_PIPELINE = "inline,staticfield,finalfield,constfold,dynfold,sccp,purecall,branchfold,deadstore,peephole";
+	public static final int DEFAULT_MAX_ITERATIONS = 10;
+
+	private static final Map<String, Supplier<OptimizationPass>> registry = new LinkedHashMap<>();
+
+	static {
+		register("inline", InliningPass::new);
+		register("staticfield", StaticFieldPropagationPass::new);
+		register("finalfield", FinalFieldForwardingPass::new);
+		register("constfold", ConstantVariableFoldPass::new);
+		register("dynfold", DynamicVariableFoldPass::new);
+		register("sccp", ConstantPropagationPass::new);
+		register("purecall", PureCallFoldPass::new);
+		register("branchfold", BranchFoldPass::new);
+		register("deadstore", DeadStoreEliminationPass::new);
+		register("peephole", PeepholePass::new);
+		register("stripdebug", StripDebugInfoPass::new);
+	}
+
+	/**
+	 * Make a pass selectable by name. Registration is per class loader, so passes that must
+	 * also be available to Main's parallel workers should be selected by class name instead.
+	 */
+	public static synchronized void register(String name, Supplier<OptimizationPass> factory) {
+		registry.put(name, factory);
+	}
+
+	public static synchronized Set<String> registeredPasses() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(registry.keySet()));
+	}
+
+	private final String spec;
+	private final List<Supplier<OptimizationPass>> pipeline = new ArrayList<>();
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+	private ProgramInfo program = ProgramInfo.EMPTY;
+
+	/**
+	 * @throws IllegalArgumentException if a pass name is neither registered nor a loadable pass class
+	 */
+	public PassManager(String spec) {
+		this.spec = spec;
+		for (String name : spec.split(",")) {
+			name = name.trim();
+			if (!name.isEmpty()) {
+				pipeline.add(lookup(name));
+			}
+		}
+	}
+
+	private static Supplier<OptimizationPass> lookup(String name) {
+		synchronized (PassManager.class) {
+			Supplier<OptimizationPass> factory = registry.get(name);
+			if (factory != null) return factory;
+		}
+		final Class<? extends OptimizationPass> type;
+		try {
+			type = Class.forName(name).asSubclass(OptimizationPass.class);
+			type.getConstructor();
+		} catch (ClassNotFoundException | ClassCastException | NoSuchMethodException e) {
+			throw new IllegalArgumentException("Unknown optimisation pass '" + name + "', expected one of "
+					+ registeredPasses() + " or the name of an OptimizationPass class");
+		}
+		return () -> {
+			try {
+				return type.getConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Cannot instantiate pass " + type.getName(), e);
+			}
+		};
+	}
+
+	public String getSpec() {
+		return spec;
+	}
+
+	/**
+	 * @return true if a pass of the pipeline needs the ProgramInfo of the whole input
+	 */
+	public boolean usesProgram() {
+		for (Supplier<OptimizationPass> factory : pipeline) {
+			if (factory.get().usesProgram()) return true;
+		}
+		return false;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Hand the passes what is known about the other classes being optimised
+	 */
+	public void setProgram(ProgramInfo program) {
+		this.program = program;
+	}
+
+	/**
+	 * Run the pipeline over every method of the class
+	 * @return true if any pass changed the class
+	 */
+	public boolean run(ClassGen cgen) {
+		return run(cgen, new ClassMetrics(cgen.getClassName()));
+	}
+
+	/**
+	 * Run the pipeline over every method of the class, recording time and counters per method and per pass
+	 * @return true if any pass changed the class
+	 */
+	public boolean run(ClassGen cgen, ClassMetrics metrics) {
+		List<OptimizationPass> passes = new ArrayList<>(pipeline.size());
+		for (Supplier<OptimizationPass> factory : pipeline) {
+			passes.add(factory.get());
+		}
+		for (OptimizationPass pass : passes) {
+			pass.setProgram(program);
+			pass.beginClass(cgen);
+		}
+
+		ConstantPoolGen cpgen = cgen.getConstantPool();
+		boolean classChanged = false;
+		for (Method method : cgen.getMethods()) {
+			long start = System.nanoTime();
+			MethodGen mg = new MethodGen(method, cgen.getClassName(), cpgen);
+			InstructionList il = mg.getInstructionList();
+			if (il == null) continue;
+
+			MethodMetrics methodMetrics = metrics.beginMethod(method.getName() + method.getSignature(), il.getLength());
+			for (OptimizationPass pass : passes) {
+				pass.setMetrics(methodMetrics.pass(pass.name()));
+			}
+			if (runToFixpoint(passes, mg, cpgen, methodMetrics)) {
+				il.setPositions(true);
+				mg.setMaxStack();
+				mg.setMaxLocals();
+				cgen.replaceMethod(method, mg.getMethod());
+				classChanged = true;
+			}
+			methodMetrics.setNanos(System.nanoTime() - start);
+		}
+
+		for (OptimizationPass pass : passes) {
+			classChanged |= pass.runOnClass(cgen);
+		}
+		return classChanged;
+	}
+
+	private boolean runToFixpoint(List<OptimizationPass> passes, MethodGen mg, ConstantPoolGen cpgen,
+								  MethodMetrics metrics) {
+		InstructionList il = mg.getInstructionList();
+		boolean methodChanged = false;
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			boolean changed = false;
+			for (OptimizationPass pass : passes) {
+				PassEvent event = new PassEvent();
+				event.begin();
+				long start = System.nanoTime();
+				boolean passChanged = pass.runOnMethod(mg, cpgen);
+				metrics.pass(pass.name()).addTime(System.nanoTime() - start, passChanged);
+				event.end();
+				if (event.shouldCommit()) {
+					event.pass = pass.name();
+					event.className = mg.getClassName();
+					event.method = mg.getName() + mg.getSignature();
+					event.iteration = iteration + 1;
+					event.changed = passChanged;
+					event.commit();
+				}
+				changed |= passChanged;
+			}
+			if (!changed) {
+				metrics.finish(il.getLength(), iteration + 1, true);
+				return methodChanged;
+			}
+			methodChanged = true;
+		}
+		// recorded as methodsWithoutFixpoint in the -report metrics
+		metrics.finish(il.getLength(), maxIterations, false);
+		return methodChanged;
+	}
+}
@@ -0,0 +1,403 @@
+package comp0012.main.passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.apache.bcel.util.InstructionFinder;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Table-driven peephole optimiser. Every rule is an InstructionFinder pattern with a rewrite of the
+ * instructions it matches; the built-in rules shorten chains of conversions, combine the constant operands
+ * of (x op c1) op c2, apply algebraic identities such as x + 0 and -(-x), strength reductions such as
+ * x * 8 to x << 3, and remove values that are stored or pushed only to be discarded.
+ * Each run applies every rule once, in the order they were added, so rules can rely on the earlier ones.
+ */
+public class PeepholePass implements OptimizationPass
+{
+	/**
+	 * Rewrites the instructions matched by a rule's pattern
+	 */
+	public interface Rewrite
+	{
+		/**
+		 * @return the instructions to put in place of the match, possibly none, or null to leave it alone
+		 */
+		InstructionList apply(InstructionHandle[] match, Context context);
+	}
+
+	/**
+	 * What a Rewrite may ask about the method being optimised
+	 */
+	public static final class Context
+	{
+		private final MethodGen mg;
+		private final ConstantPoolGen cpgen;
+		private Set<InstructionHandle> lastReads;
+		private final ConstantValue value = new ConstantValue();
+
+		private Context(MethodGen mg, ConstantPoolGen cpgen) {
+			this.mg = mg;
+			this.cpgen = cpgen;
+		}
+
+		public ConstantPoolGen getConstantPool() {
+			return cpgen;
+		}
+
+		/**
+		 * @return the number constant the instruction pushes, or null. The value is reused by the next call.
+		 */
+		public ConstantValue constant(InstructionHandle handle) {
+			return value.load(handle.getInstruction(), cpgen) ? value : null;
+		}
+
+		/**
+		 * @return true if the load reads the last value of its variable that is ever read
+		 */
+		public boolean isLastRead(InstructionHandle load) {
+			// rewrites only ever remove reads, so the liveness found before the first of them stays safe
+			if (lastReads == null) {
+				lastReads = findLastReads(mg);
+			}
+			return lastReads.contains(load);
+		}
+	}
+
+	private static final class Rule
+	{
+		final String pattern;
+		final Rewrite rewrite;
+
+		Rule(String pattern, Rewrite rewrite) {
+			this.pattern = pattern;
+			this.rewrite = rewrite;
+		}
+	}
+
+	private static final List<Rule> rules = new ArrayList<>();
+
+	static {
+		addRule("conversioninstruction conversioninstruction", PeepholePass::conversions);
+		addRule("(constantpushinstruction|ldc|ldc2_w) arithmeticinstruction (constantpushinstruction|ldc|ldc2_w)"
+				+ " arithmeticinstruction", PeepholePass::reassociate);
+		addRule("(constantpushinstruction|ldc|ldc2_w) arithmeticinstruction", PeepholePass::constantOperand);
+		addRule("(i2c|caload|arraylength|constantpushinstruction iand|constantpushinstruction iushr)"
+				+ " constantpushinstruction irem", PeepholePass::remainderOfNonNegative);
+		addRule("ineg ineg|lneg lneg|fneg fneg|dneg dneg", (match, context) -> new InstructionList());
+		addRule("storeinstruction loadinstruction", PeepholePass::storeThenLoad);
+		addRule("(loadinstruction|constantpushinstruction|aconst_null|ldc|ldc2_w|dup|dup2) (pop|pop2)",
+				PeepholePass::pushThenPop);
+	}
+
+	/**
+	 * Add a rule that every PeepholePass created afterwards applies after the existing ones.
+	 * The pattern uses InstructionFinder syntax. The matched instructions are only rewritten if nothing
+	 * jumps to any of them but the first.
+	 */
+	public static synchronized void addRule(String pattern, Rewrite rewrite) {
+		rules.add(new Rule(pattern, rewrite));
+	}
+
+	private static synchronized List<Rule> rules() {
+		return new ArrayList<>(rules);
+	}
+
+	private PassMetrics metrics = new PassMetrics();
+	private final List<Rule> table = rules();
+
+	@Override
+	public String name() {
+		return "peephole";
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		InstructionList il = mg.getInstructionList();
+		Context context = new Context(mg, cpgen);
+		InstructionFinder finder = new InstructionFinder(il);
+		List<InstructionHandle[]> matches = new ArrayList<>();
+
+		boolean modified = false;
+		for (Rule rule : table) {
+			matches.clear();
+			for (Iterator<InstructionHandle[]> it = finder.search(rule.pattern); it.hasNext(); ) {
+				matches.add(it.next());
+			}
+			// matches do not overlap, so rewriting one leaves the others in place
+			boolean changed = false;
+			for (InstructionHandle[] match : matches) {
+				InstructionHandle first = match[0];
+				InstructionHandle last = match[match.length - 1];
+				if (Instructions.hasJumpTargets(first, last)) continue;
+				InstructionList replacement = rule.rewrite.apply(match, context);
+				if (replacement == null) continue;
+				metrics.instructionsRemoved(match.length - replacement.getLength());
+				metrics.rewriteApplied();
+				Instructions.replace(mg, first, last, replacement);
+				changed = true;
+			}
+			if (changed) {
+				finder.reread();
+				modified = true;
+			}
+		}
+		il.setPositions(true);
+		return modified;
+	}
+
+	/**
+	 * @return the loads after which their variable is dead
+	 */
+	private static Set<InstructionHandle> findLastReads(MethodGen mg) {
+		Set<InstructionHandle> lastReads = new HashSet<>();
+		Liveness liveness = Liveness.analyse(mg);
+		if (liveness != null) {
+			liveness.forEachInstruction((handle, liveAfter) -> {
+				Instruction inst = handle.getInstruction();
+				if (inst instanceof LoadInstruction && !liveAfter.get(((LoadInstruction) inst).getIndex())) {
+					lastReads.add(handle);
+				}
+			});
+		}
+		return lastReads;
+	}
+
+	/**
+	 * Pairs of conversions that one conversion does exactly, keyed by the two opcodes; -1 means neither is needed
+	 */
+	private static final Map<Integer, Short> CONVERSION_PAIRS = new HashMap<>();
+
+	static {
+		conversionPair(Constants.I2L, Constants.L2I, (short) -1);
+		conversionPair(Constants.I2D, Constants.D2I, (short) -1);
+		conversionPair(Constants.F2D, Constants.D2F, (short) -1);
+		conversionPair(Constants.I2L, Constants.L2F, Constants.I2F);
+		conversionPair(Constants.I2L, Constants.L2D, Constants.I2D);
+		conversionPair(Constants.F2D, Constants.D2I, Constants.F2I);
+		conversionPair(Constants.F2D, Constants.D2L, Constants.F2L);
+		// narrowing twice keeps the bits of the narrower type; a wider signed type keeps the sign extension
+		conversionPair(Constants.I2B, Constants.I2B, Constants.I2B);
+		conversionPair(Constants.I2S, Constants.I2B, Constants.I2B);
+		conversionPair(Constants.I2C, Constants.I2B, Constants.I2B);
+		conversionPair(Constants.I2B, Constants.I2S, Constants.I2B);
+		conversionPair(Constants.I2S, Constants.I2S, Constants.I2S);
+		conversionPair(Constants.I2C, Constants.I2S, Constants.I2S);
+		conversionPair(Constants.I2S, Constants.I2C, Constants.I2C);
+		conversionPair(Constants.I2C, Constants.I2C, Constants.I2C);
+	}
+
+	private static void conversionPair(short first, short second, short combined) {
+		CONVERSION_PAIRS.put(first << 8 | second, combined);
+	}
+
+	private static InstructionList conversions(InstructionHandle[] match, Context context) {
+		Instruction first = match[0].getInstruction();
+		Instruction second = match[1].getInstruction();
+		Short combined = CONVERSION_PAIRS.get(first.getOpcode() << 8 | second.getOpcode());
+		if (combined == null) return null;
+		if (combined < 0) return new InstructionList();
+		return new InstructionList(combined == first.getOpcode() ? first
+				: combined == second.getOpcode() ? second : InstructionConstants.INSTRUCTIONS[combined]);
+	}
+
+	/**
+	 * (x op c1) op c2 is x op (c1 op c2) for the associative integer operators, sums and differences,
+	 * and repeated shifts
+	 */
+	private static InstructionList reassociate(InstructionHandle[] match, Context context) {
+		Instruction op1 = match[1].getInstruction();
+		Instruction op2 = match[3].getInstruction();
+		ConstantValue c2 = context.constant(match[2]);
+		if (c2 == null) return null;
+		ConstantValue combined = new ConstantValue().set(c2);
+		ConstantValue c1 = context.constant(match[0]);
+		if (c1 == null || ConstantEvaluator.arity(op1) != 2 || ConstantEvaluator.arity(op2) != 2
+				|| c1.getTag() != ConstantEvaluator.operandType(op1, 1)
+				|| combined.getTag() != ConstantEvaluator.operandType(op2, 1)) {
+			return null;
+		}
+		Instruction op = op2;
+
+		switch (op1.getOpcode()) {
+			case Constants.IADD: case Constants.ISUB:
+			case Constants.LADD: case Constants.LSUB: {
+				boolean isInt = op1.getOpcode() == Constants.IADD || op1.getOpcode() == Constants.ISUB;
+				int add = isInt ? Constants.IADD : Constants.LADD;
+				int sub = isInt ? Constants.ISUB : Constants.LSUB;
+				if (op2.getOpcode() != add && op2.getOpcode() != sub) return null;
+				long sum = (op1.getOpcode() == add ? c1.longValue() : -c1.longValue())
+						+ (op2.getOpcode() == add ? combined.longValue() : -combined.longValue());
+				if (isInt) {
+					combined.setInt((int) sum);
+					op = new IADD();
+				} else {
+					combined.setLong(sum);
+					op = new LADD();
+				}
+				break;
+			}
+			case Constants.IMUL: case Constants.IAND: case Constants.IOR: case Constants.IXOR:
+			case Constants.LMUL: case Constants.LAND: case Constants.LOR: case Constants.LXOR:
+				if (op1.getOpcode() != op2.getOpcode()) return null;
+				ConstantEvaluator.evaluate(op1, c1, combined, combined);
+				break;
+			case Constants.ISHL: case Constants.ISHR: case Constants.IUSHR:
+			case Constants.LSHL: case Constants.LSHR: case Constants.LUSHR: {
+				if (op1.getOpcode() != op2.getOpcode()) return null;
+				int mask = ConstantEvaluator.operandType(op1, 0) == ConstantValue.LONG ? 0x3f : 0x1f;
+				int distance = (c1.intValue() & mask) + (combined.intValue() & mask);
+				if (distance > mask) {
+					// shifting the sign in saturates, shifting zeros in would leave zero
+					if (op1.getOpcode() != Constants.ISHR && op1.getOpcode() != Constants.LSHR) return null;
+					distance = mask;
+				}
+				combined.setInt(distance);
+				break;
+			}
+			default:
+				return null;
+		}
+
+		InstructionList list = new InstructionList(
+				Instructions.createConstantInstruction(combined, context.getConstantPool()));
+		list.append(op);
+		return list;
+	}
+
+	/**
+	 * x op c where c makes the operation an identity, a constant or a cheaper operation
+	 */
+	private static InstructionList constantOperand(InstructionHandle[] match, Context context) {
+		Instruction op = match[1].getInstruction();
+		ConstantValue c = context.constant(match[0]);
+		if (c == null || ConstantEvaluator.arity(op) != 2 || c.getTag() != ConstantEvaluator.operandType(op, 1)) {
+			return null;
+		}
+		int operandSize = ConstantEvaluator.size(ConstantEvaluator.operandType(op, 0));
+		long n = c.longValue();
+
+		switch (op.getOpcode()) {
+			case Constants.IADD: case Constants.LADD:
+			case Constants.ISUB: case Constants.LSUB:
+			case Constants.IOR: case Constants.LOR:
+			case Constants.IXOR: case Constants.LXOR:
+				return n == 0 ? new InstructionList() : null;
+			case Constants.ISHL: case Constants.ISHR: case Constants.IUSHR:
+				return (n & 0x1f) == 0 ? new InstructionList() : null;
+			case Constants.LSHL: case Constants.LSHR: case Constants.LUSHR:
+				return (n & 0x3f) == 0 ? new InstructionList() : null;
+			case Constants.IAND: case Constants.LAND:
+				if (n == -1) return new InstructionList();
+				return n == 0 ? discardAndPush(operandSize, c.getTag()) : null;
+			case Constants.IMUL: case Constants.LMUL:
+				if (n == 1) return new InstructionList();
+				if (n == 0) return discardAndPush(operandSize, c.getTag());
+				if (n == -1) return new InstructionList(op.getOpcode() == Constants.IMUL ? new INEG() : new LNEG());
+				if (n > 0 && Long.bitCount(n) == 1) {
+					InstructionList shift = new InstructionList(Instructions.createConstantInstruction(
+							new ConstantValue().setInt(Long.numberOfTrailingZeros(n)), context.getConstantPool()));
+					shift.append(op.getOpcode() == Constants.IMUL ? new ISHL() : new LSHL());
+					return shift;
+				}
+				return null;
+			case Constants.IDIV: case Constants.LDIV:
+				if (n == 1) return new InstructionList();
+				if (n == -1) return new InstructionList(op.getOpcode() == Constants.IDIV ? new INEG() : new LNEG());
+				return null;
+			case Constants.IREM: case Constants.LREM:
+				return n == 1 || n == -1 ? discardAndPush(operandSize, c.getTag()) : null;
+			case Constants.FMUL: case Constants.FDIV:
+				return c.floatValue() == 1.0f ? new InstructionList() : null;
+			case Constants.DMUL: case Constants.DDIV:
+				return c.doubleValue() == 1.0 ? new InstructionList() : null;
+			case Constants.FSUB: case Constants.DSUB:
+				// x - 0.0 keeps the sign of a negative zero x, x - -0.0 does not
+				return c.getBits() == 0 ? new InstructionList() : null;
+			case Constants.FADD:
+				return Float.floatToRawIntBits(c.floatValue()) == 0x80000000 ? new InstructionList() : null;
+			case Constants.DADD:
+				return c.getBits() == 0x8000000000000000L ? new InstructionList() : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Replace the other operand by a zero of the given type
+	 */
+	private static InstructionList discardAndPush(int operandSize, byte type) {
+		InstructionList list = new InstructionList(operandSize == 2 ? new POP2() : new POP());
+		list.append(type == ConstantValue.LONG ? new LCONST(0) : new ICONST(0));
+		return list;
+	}
+
+	/**
+	 * x % 2^k is x & (2^k - 1) when x cannot be negative
+	 */
+	private static InstructionList remainderOfNonNegative(InstructionHandle[] match, Context context) {
+		int divisorIndex = match.length - 2;
+		ConstantValue c = context.constant(match[divisorIndex]);
+		if (c == null) return null;
+		int divisor = c.intValue();
+		if (divisor <= 0 || Integer.bitCount(divisor) != 1) return null;
+
+		if (match.length == 4) {
+			ConstantValue operand = context.constant(match[0]);
+			boolean nonNegative = match[1].getInstruction() instanceof IAND
+					? operand.intValue() >= 0
+					: (operand.intValue() & 0x1f) != 0;
+			if (!nonNegative) return null;
+		}
+
+		InstructionList list = new InstructionList();
+		for (int i = 0; i < divisorIndex; i++) {
+			list.append(match[i].getInstruction().copy());
+		}
+		list.append(Instructions.createConstantInstruction(
+				new ConstantValue().setInt(divisor - 1), context.getConstantPool()));
+		list.append(new IAND());
+		return list;
+	}
+
+	/**
+	 * Storing a value and loading it straight back is a no-op if nothing reads the variable afterwards
+	 */
+	private static InstructionList storeThenLoad(InstructionHandle[] match, Context context) {
+		StoreInstruction store = (StoreInstruction) match[0].getInstruction();
+		LoadInstruction load = (LoadInstruction) match[1].getInstruction();
+		ConstantPoolGen cpgen = context.getConstantPool();
+		if (store.getIndex() != load.getIndex() || !store.getType(cpgen).equals(load.getType(cpgen))
+				|| !context.isLastRead(match[1])) {
+			return null;
+		}
+		return new InstructionList();
+	}
+
+	/**
+	 * A value pushed without side effects and popped straight away
+	 */
+	private static InstructionList pushThenPop(InstructionHandle[] match, Context context) {
+		Instruction push = match[0].getInstruction();
+		ConstantPoolGen cpgen = context.getConstantPool();
+		if (push instanceof LDC && ((LDC) push).getType(cpgen) == Type.CLASS) {
+			// loading a class constant may fail
+			return null;
+		}
+		int words = push instanceof DUP ? 1 : push instanceof DUP2 ? 2 : push.produceStack(cpgen);
+		return words == match[1].getInstruction().consumeStack(cpgen) ? new InstructionList() : null;
+	}
+}
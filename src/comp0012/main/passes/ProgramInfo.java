@@ -0,0 +1,69 @@
+package comp0012.main.passes;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What is known about the other classes being optimised, gathered by Main before any class is
+ * transformed. Only holds JDK types, so the driver can build the tables once and hand them to
+ * workers running their own copy of the optimiser.
+ */
+public final class ProgramInfo
+{
+	public static final ProgramInfo EMPTY = new ProgramInfo(Collections.emptyMap());
+
+	private final Map<String, Number> staticConstants;
+	private final Set<String> pureMethods;
+	private final Set<String> inlinableMethods;
+	private final ClassLoader classLoader;
+
+	/**
+	 * @param staticConstants values of the static final fields that any class may use in place of a
+	 * GETSTATIC, keyed by StaticFieldConstants.key()
+	 */
+	public ProgramInfo(Map<String, Number> staticConstants) {
+		this(staticConstants, Collections.emptySet(), Collections.emptySet(), ProgramInfo.class.getClassLoader());
+	}
+
+	/**
+	 * @param pureMethods the methods of the input marked with @Pure, keyed by methodKey()
+	 * @param inlinableMethods the methods of the input the inline pass may copy into other classes,
+	 * keyed by methodKey()
+	 * @param classLoader loads the classes of the input, so that the purecall pass can run their @Pure methods
+	 * and the inline pass can read the methods it copies
+	 */
+	public ProgramInfo(Map<String, Number> staticConstants, Set<String> pureMethods, Set<String> inlinableMethods,
+					   ClassLoader classLoader) {
+		this.staticConstants = staticConstants;
+		this.pureMethods = pureMethods;
+		this.inlinableMethods = inlinableMethods;
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * @return the key of a method in the tables of ProgramInfo, e.g. "java.lang.Math.max(II)I"
+	 */
+	public static String methodKey(String className, String methodName, String signature) {
+		return className + "." + methodName + signature;
+	}
+
+	/**
+	 * @return the constant the field always holds, or null if it is not known
+	 */
+	public Number getStaticConstant(String className, String fieldName, String signature) {
+		return staticConstants.get(StaticFieldConstants.key(className, fieldName, signature));
+	}
+
+	public boolean isPureMethod(String className, String methodName, String signature) {
+		return pureMethods.contains(methodKey(className, methodName, signature));
+	}
+
+	public boolean isInlinable(String className, String methodName, String signature) {
+		return inlinableMethods.contains(methodKey(className, methodName, signature));
+	}
+
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+}
@@ -0,0 +1,20 @@
+package comp0012.main.passes;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a static method whose result only depends on its arguments and which has no effect, so that the
+ * purecall pass may run it while optimising a call with constant arguments and use the result instead.
+ * Any annotation named Pure is accepted, so code need not depend on the optimiser to use its own.
+ * Only methods taking primitives and Strings and returning a primitive are evaluated. Running the method
+ * loads and initialises its class in the optimiser, and removing the call removes the initialisation the
+ * call would have triggered.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Pure
+{
+}
@@ -0,0 +1,144 @@
+package comp0012.main.passes;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Replaces INVOKESTATIC of a pure method by its result when every argument is pushed by a constant
+ * instruction right before the call, e.g. ICONST_3; BIPUSH 7; INVOKESTATIC Math.max(II)I becomes BIPUSH 7.
+ * The method is run in the optimiser, see PureMethods for which ones qualify. A call that throws is left
+ * alone, so that it still throws at run time.
+ */
+public class PureCallFoldPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private ProgramInfo program = ProgramInfo.EMPTY;
+	private final ConstantValue value = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "purecall";
+	}
+
+	@Override
+	public void setProgram(ProgramInfo program) {
+		this.program = program;
+	}
+
+	@Override
+	public boolean usesProgram() {
+		return true;
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		boolean modified = false;
+		for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; ) {
+			InstructionHandle next = handle.getNext();
+			if (handle.getInstruction() instanceof INVOKESTATIC && fold(mg, handle, cpgen)) {
+				metrics.constantFolded();
+				modified = true;
+			}
+			handle = next;
+		}
+		return modified;
+	}
+
+	private boolean fold(MethodGen mg, InstructionHandle call, ConstantPoolGen cpgen) {
+		INVOKESTATIC invoke = (INVOKESTATIC) call.getInstruction();
+		if (!isPureCall(invoke, cpgen, program)) return false;
+		String owner = ((ObjectType) invoke.getReferenceType(cpgen)).getClassName();
+		String name = invoke.getMethodName(cpgen);
+		String signature = invoke.getSignature(cpgen);
+
+		Type[] types = Type.getArgumentTypes(signature);
+		Object[] args = new Object[types.length];
+		InstructionHandle first = call;
+		for (int i = types.length - 1; i >= 0; i--) {
+			first = first.getPrev();
+			if (first == null || (args[i] = argument(first.getInstruction(), types[i], cpgen)) == null) return false;
+		}
+		if (Instructions.hasJumpTargets(first, call)) return false;
+
+		Object result = PureMethods.invoke(program.getClassLoader(), owner, name, signature, args);
+		if (result == null || !toValue(result, Type.getReturnType(signature))) return false;
+		Instructions.replace(mg, first, call, new InstructionList(Instructions.createConstantInstruction(value, cpgen)));
+		return true;
+	}
+
+	/**
+	 * @return true if the instruction calls a method this pass may evaluate
+	 */
+	private static boolean isPureCall(Instruction inst, ConstantPoolGen cpgen, ProgramInfo program) {
+		if (!(inst instanceof INVOKESTATIC)) return false;
+		InvokeInstruction invoke = (InvokeInstruction) inst;
+		ReferenceType owner = invoke.getReferenceType(cpgen);
+		if (!(owner instanceof ObjectType)) return false;
+		String className = ((ObjectType) owner).getClassName();
+		String name = invoke.getMethodName(cpgen);
+		String signature = invoke.getSignature(cpgen);
+		return PureMethods.isRegistered(className, name, signature) || program.isPureMethod(className, name, signature);
+	}
+
+	/**
+	 * @return the boxed value the instruction pushes for a parameter of the type, or null if it is not
+	 * a constant push
+	 */
+	private Object argument(Instruction inst, Type type, ConstantPoolGen cpgen) {
+		if (type.equals(Type.STRING)) {
+			if (!(inst instanceof LDC || inst instanceof LDC_W)) return null;
+			Constant c = cpgen.getConstant(((CPInstruction) inst).getIndex());
+			return c instanceof ConstantString ? ((ConstantString) c).getBytes(cpgen.getConstantPool()) : null;
+		}
+		if (!value.load(inst, cpgen)) return null;
+		switch (type.getType()) {
+			case Constants.T_INT: return value.getTag() == ConstantValue.INT ? value.intValue() : null;
+			case Constants.T_BOOLEAN: return value.getTag() == ConstantValue.INT ? value.intValue() != 0 : null;
+			case Constants.T_CHAR: return value.getTag() == ConstantValue.INT ? (char) value.intValue() : null;
+			case Constants.T_SHORT: return value.getTag() == ConstantValue.INT ? (short) value.intValue() : null;
+			case Constants.T_BYTE: return value.getTag() == ConstantValue.INT ? (byte) value.intValue() : null;
+			case Constants.T_LONG: return value.getTag() == ConstantValue.LONG ? value.longValue() : null;
+			case Constants.T_FLOAT: return value.getTag() == ConstantValue.FLOAT ? value.floatValue() : null;
+			case Constants.T_DOUBLE: return value.getTag() == ConstantValue.DOUBLE ? value.doubleValue() : null;
+			default: return null;
+		}
+	}
+
+	/**
+	 * Set value to a boxed result of the return type
+	 * @return false for a NaN other than the canonical one, which the constant pool cannot hold
+	 */
+	private boolean toValue(Object result, Type type) {
+		switch (type.getType()) {
+			case Constants.T_LONG:
+				value.setLong((Long) result);
+				return true;
+			case Constants.T_FLOAT:
+				float f = (Float) result;
+				value.setFloat(f);
+				return Float.floatToRawIntBits(f) == Float.floatToIntBits(f);
+			case Constants.T_DOUBLE:
+				double d = (Double) result;
+				value.setDouble(d);
+				return Double.doubleToRawLongBits(d) == Double.doubleToLongBits(d);
+			case Constants.T_BOOLEAN:
+				value.setInt((Boolean) result ? 1 : 0);
+				return true;
+			case Constants.T_CHAR:
+				value.setInt((Character) result);
+				return true;
+			default:
+				value.setInt(((Number) result).intValue());
+				return true;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package comp0012.main.passes;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.AnnotationEntry;
+import org.apache.bcel.generic.BasicType;
+import org.apache.bcel.generic.Type;
+
+/**
+ * The static methods the purecall pass may evaluate while optimising: a whitelist of JDK methods whose
+ * result is fully specified by their arguments on every JVM, methods registered at run time, and the
+ * methods of the input that Main finds annotated with @Pure.
+ * Math methods that the specification allows to differ between platforms, such as Math.sin, are left
+ * out in favour of their StrictMath versions, as are methods returning objects, whose identity a caller
+ * could compare.
+ */
+public final class PureMethods
+{
+	private static final Set<String> registry = new HashSet<>();
+
+	static {
+		add("java.lang.Math", "abs(I)I", "abs(J)J", "abs(F)F", "abs(D)D",
+				"max(II)I", "max(JJ)J", "max(FF)F", "max(DD)D", "min(II)I", "min(JJ)J", "min(FF)F", "min(DD)D",
+				"addExact(II)I", "addExact(JJ)J", "subtractExact(II)I", "subtractExact(JJ)J",
+				"multiplyExact(II)I", "multiplyExact(JJ)J", "negateExact(I)I", "negateExact(J)J",
+				"incrementExact(I)I", "incrementExact(J)J", "decrementExact(I)I", "decrementExact(J)J",
+				"toIntExact(J)I", "floorDiv(II)I", "floorDiv(JJ)J", "floorMod(II)I", "floorMod(JJ)J",
+				"sqrt(D)D", "floor(D)D", "ceil(D)D", "rint(D)D", "round(F)I", "round(D)J",
+				"signum(F)F", "signum(D)D", "copySign(FF)F", "copySign(DD)D", "ulp(F)F", "ulp(D)D",
+				"getExponent(F)I", "getExponent(D)I");
+		add("java.lang.StrictMath", "sin(D)D", "cos(D)D", "tan(D)D", "asin(D)D", "acos(D)D", "atan(D)D",
+				"atan2(DD)D", "exp(D)D", "expm1(D)D", "log(D)D", "log10(D)D", "log1p(D)D", "sqrt(D)D",
+				"cbrt(D)D", "pow(DD)D", "hypot(DD)D", "sinh(D)D", "cosh(D)D", "tanh(D)D", "IEEEremainder(DD)D");
+		add("java.lang.Integer", "rotateLeft(II)I", "rotateRight(II)I", "bitCount(I)I", "highestOneBit(I)I",
+				"lowestOneBit(I)I", "numberOfLeadingZeros(I)I", "numberOfTrailingZeros(I)I", "reverse(I)I",
+				"reverseBytes(I)I", "signum(I)I", "compare(II)I", "compareUnsigned(II)I", "divideUnsigned(II)I",
+				"remainderUnsigned(II)I", "toUnsignedLong(I)J", "max(II)I", "min(II)I", "sum(II)I", "hashCode(I)I",
+				"parseInt(Ljava/lang/String;)I", "parseInt(Ljava/lang/String;I)I",
+				"parseUnsignedInt(Ljava/lang/String;)I", "parseUnsignedInt(Ljava/lang/String;I)I");
+		add("java.lang.Long", "rotateLeft(JI)J", "rotateRight(JI)J", "bitCount(J)I", "highestOneBit(J)J",
+				"lowestOneBit(J)J", "numberOfLeadingZeros(J)I", "numberOfTrailingZeros(J)I", "reverse(J)J",
+				"reverseBytes(J)J", "signum(J)I", "compare(JJ)I", "compareUnsigned(JJ)I", "divideUnsigned(JJ)J",
+				"remainderUnsigned(JJ)J", "max(JJ)J", "min(JJ)J", "sum(JJ)J", "hashCode(J)I",
+				"parseLong(Ljava/lang/String;)J", "parseLong(Ljava/lang/String;I)J",
+				"parseUnsignedLong(Ljava/lang/String;)J", "parseUnsignedLong(Ljava/lang/String;I)J");
+		add("java.lang.Short", "reverseBytes(S)S", "toUnsignedInt(S)I", "compare(SS)I",
+				"parseShort(Ljava/lang/String;)S");
+		add("java.lang.Byte", "toUnsignedInt(B)I", "compare(BB)I", "parseByte(Ljava/lang/String;)B");
+		add("java.lang.Character", "reverseBytes(C)C", "compare(CC)I");
+		add("java.lang.Boolean", "compare(ZZ)I", "logicalAnd(ZZ)Z", "logicalOr(ZZ)Z", "logicalXor(ZZ)Z",
+				"hashCode(Z)I", "parseBoolean(Ljava/lang/String;)Z");
+		add("java.lang.Float", "floatToIntBits(F)I", "floatToRawIntBits(F)I", "intBitsToFloat(I)F",
+				"compare(FF)I", "isNaN(F)Z", "isInfinite(F)Z", "isFinite(F)Z", "max(FF)F", "min(FF)F", "sum(FF)F",
+				"hashCode(F)I", "parseFloat(Ljava/lang/String;)F");
+		add("java.lang.Double", "doubleToLongBits(D)J", "doubleToRawLongBits(D)J", "longBitsToDouble(J)D",
+				"compare(DD)I", "isNaN(D)Z", "isInfinite(D)Z", "isFinite(D)Z", "max(DD)D", "min(DD)D", "sum(DD)D",
+				"hashCode(D)I", "parseDouble(Ljava/lang/String;)D");
+	}
+
+	private PureMethods() {
+	}
+
+	private static void add(String className, String... methods) {
+		for (String method : methods) {
+			int paren = method.indexOf('(');
+			registry.add(ProgramInfo.methodKey(className, method.substring(0, paren), method.substring(paren)));
+		}
+	}
+
+	/**
+	 * Let the purecall pass evaluate a static method of the JDK or the class path, which must not have
+	 * any effect and must return the same result for the same arguments on every run. Registration is per
+	 * class loader, like PassManager.register(); methods of the input are better marked with @Pure.
+	 * @param signature the method descriptor, e.g. "(II)I"
+	 */
+	public static synchronized void register(String className, String methodName, String signature) {
+		registry.add(ProgramInfo.methodKey(className, methodName, signature));
+	}
+
+	public static synchronized boolean isRegistered(String className, String methodName, String signature) {
+		return registry.contains(ProgramInfo.methodKey(className, methodName, signature));
+	}
+
+	/**
+	 * @return true if the method is marked with an annotation named Pure and has a signature the purecall
+	 * pass can evaluate
+	 */
+	public static boolean isAnnotatedPure(org.apache.bcel.classfile.Method method) {
+		if (!method.isStatic() || !isEvaluable(method.getSignature())) return false;
+		for (AnnotationEntry entry : method.getAnnotationEntries()) {
+			String type = entry.getAnnotationType();
+			if (type.equals("LPure;") || type.endsWith("/Pure;") || type.endsWith("$Pure;")) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every parameter is a primitive or a String and the method returns a primitive
+	 */
+	static boolean isEvaluable(String signature) {
+		Type result = Type.getReturnType(signature);
+		if (!(result instanceof BasicType) || result == Type.VOID) return false;
+		for (Type type : Type.getArgumentTypes(signature)) {
+			if (!(type instanceof BasicType) && !type.equals(Type.STRING)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run the method on boxed arguments
+	 * @param loader loads the method's class
+	 * @return the boxed result, or null if the method cannot be found or throws, in which case the call
+	 * must stay so that it throws at run time too
+	 */
+	static Object invoke(ClassLoader loader, String className, String methodName, String signature, Object[] args) {
+		try {
+			Method method = resolve(loader, className, methodName, signature);
+			return method == null ? null : method.invoke(null, args);
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static Method resolve(ClassLoader loader, String className, String methodName, String signature)
+			throws ReflectiveOperationException {
+		Class<?> owner = Class.forName(className, true, loader);
+		Type[] types = Type.getArgumentTypes(signature);
+		Class<?>[] parameters = new Class<?>[types.length];
+		for (int i = 0; i < types.length; i++) {
+			parameters[i] = toClass(types[i]);
+		}
+		Method method = owner.getDeclaredMethod(methodName, parameters);
+		if (!Modifier.isStatic(method.getModifiers()) || method.getReturnType() != toClass(Type.getReturnType(signature))) {
+			return null;
+		}
+		method.setAccessible(true);
+		return method;
+	}
+
+	private static Class<?> toClass(Type type) {
+		switch (type.getType()) {
+			case Constants.T_INT: return int.class;
+			case Constants.T_LONG: return long.class;
+			case Constants.T_FLOAT: return float.class;
+			case Constants.T_DOUBLE: return double.class;
+			case Constants.T_BOOLEAN: return boolean.class;
+			case Constants.T_CHAR: return char.class;
+			case Constants.T_SHORT: return short.class;
+			case Constants.T_BYTE: return byte.class;
+			default: return String.class;
+		}
+	}
+}
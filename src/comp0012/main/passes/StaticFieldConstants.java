@@ -0,0 +1,172 @@
+package comp0012.main.passes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.*;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.util.ByteSequence;
+
+/**
+ * Finds the static final primitive fields of a class that always hold the same constant: those with a
+ * ConstantValue attribute, and those that the start of the static initialiser assigns from a constant
+ * push before running any other code and that nothing else assigns.
+ * Only reads class file structures and never builds an InstructionList, so any number of threads may
+ * scan classes with the same copy of BCEL.
+ */
+public final class StaticFieldConstants
+{
+	private final Map<String, Number> constants = new HashMap<>();
+	private boolean trivialInitialiser = true;
+
+	private StaticFieldConstants() {
+	}
+
+	/**
+	 * @return the key of a field in the tables of collect() and ProgramInfo
+	 */
+	public static String key(String className, String fieldName, String signature) {
+		return className + "." + fieldName + ":" + signature;
+	}
+
+	/**
+	 * @param className the class the fields and methods belong to, e.g. "pkg.Outer$Inner"
+	 * @return the constant fields of the class keyed by key()
+	 */
+	public static StaticFieldConstants collect(String className, Field[] fields, Method[] methods, ConstantPool pool) {
+		StaticFieldConstants result = new StaticFieldConstants();
+		try {
+			result.scan(className, fields, methods, pool);
+		} catch (IOException | RuntimeException e) {
+			// a class this cannot read contributes nothing
+			result.constants.clear();
+			result.trivialInitialiser = false;
+		}
+		return result;
+	}
+
+	public Map<String, Number> getConstants() {
+		return constants;
+	}
+
+	/**
+	 * @return true if the static initialiser only assigns constants to fields of its own class, so that
+	 * initialising the class has no effect a reader of one of its constants could observe
+	 */
+	public boolean hasTrivialInitialiser() {
+		return trivialInitialiser;
+	}
+
+	private void scan(String className, Field[] fields, Method[] methods, ConstantPool pool) throws IOException {
+		Map<String, Integer> stores = new HashMap<>();
+		Map<String, Number> initialised = new HashMap<>();
+		for (Method method : methods) {
+			Code code = method.getCode();
+			if (code == null) continue;
+			boolean initialiser = method.getName().equals("<clinit>");
+			boolean prefix = initialiser;
+			Number pushed = null;
+			try (ByteSequence bytes = new ByteSequence(code.getCode())) {
+				while (bytes.available() > 0) {
+					Instruction inst = Instruction.readInstruction(bytes);
+					Number value = prefix ? constant(inst, pool) : null;
+					String stored = inst.getOpcode() == Constants.PUTSTATIC
+							? ownField((CPInstruction) inst, className, pool) : null;
+					if (stored != null) {
+						stores.merge(stored, 1, Integer::sum);
+					}
+					if (!prefix) continue;
+					if (value != null && pushed == null) {
+						pushed = value;
+					} else if (stored != null && pushed != null) {
+						initialised.put(stored, pushed);
+						pushed = null;
+					} else {
+						trivialInitialiser &= pushed == null && inst.getOpcode() == Constants.RETURN;
+						prefix = false;
+					}
+				}
+			}
+			if (initialiser && prefix) {
+				trivialInitialiser = false;
+			}
+		}
+
+		for (Field field : fields) {
+			if (!field.isStatic() || !field.isFinal()) continue;
+			String key = key(className, field.getName(), field.getSignature());
+			int storeCount = stores.getOrDefault(key, 0);
+			Number value = null;
+			if (field.getConstantValue() != null && storeCount == 0) {
+				value = poolConstant(field.getConstantValue().getConstantValueIndex(), pool);
+			} else if (storeCount == 1) {
+				value = initialised.get(key);
+			}
+			if (value != null && matches(field.getSignature(), value)) {
+				constants.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * @return the key of the field a PUTSTATIC, PUTFIELD or GETFIELD accesses if it belongs to the class,
+	 * otherwise null
+	 */
+	static String ownField(CPInstruction inst, String className, ConstantPool pool) {
+		ConstantFieldref ref = (ConstantFieldref) pool.getConstant(inst.getIndex(), Constants.CONSTANT_Fieldref);
+		String owner = ref.getClass(pool);
+		if (!owner.equals(className)) return null;
+		ConstantNameAndType nat = (ConstantNameAndType) pool.getConstant(ref.getNameAndTypeIndex(),
+				Constants.CONSTANT_NameAndType);
+		return key(owner, nat.getName(pool), nat.getSignature(pool));
+	}
+
+	/**
+	 * @return the primitive value the instruction pushes, or null if it is not a constant push
+	 */
+	static Number constant(Instruction inst, ConstantPool pool) {
+		if (inst instanceof ConstantPushInstruction) {
+			return ((ConstantPushInstruction) inst).getValue();
+		}
+		switch (inst.getOpcode()) {
+			case Constants.LDC:
+			case Constants.LDC_W:
+			case Constants.LDC2_W:
+				return poolConstant(((CPInstruction) inst).getIndex(), pool);
+			default:
+				return null;
+		}
+	}
+
+	private static Number poolConstant(int index, ConstantPool pool) {
+		Constant c = pool.getConstant(index);
+		if (c instanceof ConstantInteger) return ((ConstantInteger) c).getBytes();
+		if (c instanceof ConstantLong) return ((ConstantLong) c).getBytes();
+		if (c instanceof ConstantFloat) return ((ConstantFloat) c).getBytes();
+		if (c instanceof ConstantDouble) return ((ConstantDouble) c).getBytes();
+		return null;
+	}
+
+	static boolean matches(String signature, Number value) {
+		switch (signature) {
+			case "I":
+			case "S":
+			case "B":
+			case "C":
+			case "Z":
+				return value instanceof Integer;
+			case "J":
+				return value instanceof Long;
+			case "F":
+				return value instanceof Float;
+			case "D":
+				return value instanceof Double;
+			default:
+				return false;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package comp0012.main.passes;
+
+import java.util.Map;
+
+import org.apache.bcel.generic.*;
+
+import comp0012.main.metrics.PassMetrics;
+
+/**
+ * Replaces GETSTATIC of static final fields that always hold the same primitive constant by that constant,
+ * so that constfold and sccp can fold the expressions reading them. Fields of the class itself come from
+ * StaticFieldConstants; fields of other classes from the ProgramInfo table that Main collects over the
+ * whole input, which only lists classes whose initialisation has no observable effect, since the read it
+ * removes could have been what triggered it.
+ */
+public class StaticFieldPropagationPass implements OptimizationPass
+{
+	private PassMetrics metrics = new PassMetrics();
+	private ProgramInfo program = ProgramInfo.EMPTY;
+	private String className;
+	private Map<String, Number> ownConstants;
+	private final ConstantValue value = new ConstantValue();
+
+	@Override
+	public String name() {
+		return "staticfield";
+	}
+
+	@Override
+	public void setProgram(ProgramInfo program) {
+		this.program = program;
+	}
+
+	@Override
+	public boolean usesProgram() {
+		return true;
+	}
+
+	@Override
+	public void beginClass(ClassGen cgen) {
+		className = cgen.getClassName();
+		ownConstants = StaticFieldConstants.collect(className, cgen.getFields(), cgen.getMethods(),
+				cgen.getConstantPool().getConstantPool()).getConstants();
+	}
+
+	@Override
+	public void setMetrics(PassMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		boolean modified = false;
+		for (InstructionHandle handle = mg.getInstructionList().getStart(); handle != null; ) {
+			InstructionHandle next = handle.getNext();
+			if (handle.getInstruction() instanceof GETSTATIC) {
+				GETSTATIC get = (GETSTATIC) handle.getInstruction();
+				Number constant = lookup(get.getReferenceType(cpgen), get.getFieldName(cpgen), get.getSignature(cpgen));
+				if (constant != null) {
+					Instructions.replace(mg, handle, handle,
+							new InstructionList(Instructions.createConstantInstruction(toValue(constant), cpgen)));
+					metrics.loadReplaced();
+					modified = true;
+				}
+			}
+			handle = next;
+		}
+		return modified;
+	}
+
+	private Number lookup(ReferenceType owner, String fieldName, String signature) {
+		if (!(owner instanceof ObjectType)) return null;
+		String ownerName = ((ObjectType) owner).getClassName();
+		if (ownerName.equals(className)) {
+			return ownConstants.get(StaticFieldConstants.key(ownerName, fieldName, signature));
+		}
+		return program.getStaticConstant(ownerName, fieldName, signature);
+	}
+
+	private ConstantValue toValue(Number constant) {
+		if (constant instanceof Long) return value.setLong(constant.longValue());
+		if (constant instanceof Float) return value.setFloat(constant.floatValue());
+		if (constant instanceof Double) return value.setDouble(constant.doubleValue());
+		return value.setInt(constant.intValue());
+	}
+}
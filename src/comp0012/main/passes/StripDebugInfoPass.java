@@ -0,0 +1,33 @@
+package comp0012.main.passes;
+
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.bcel.generic.*;
+
+/**
+ * Removes the LineNumberTable, LocalVariableTable and LocalVariableTypeTable of every method.
+ * Not part of the default pipeline, since stack traces lose their line numbers and debuggers their
+ * variable names; append it, e.g. "-passes constfold,...,peephole,stripdebug", when class file size
+ * matters more.
+ */
+public class StripDebugInfoPass implements OptimizationPass
+{
+	@Override
+	public String name() {
+		return "stripdebug";
+	}
+
+	@Override
+	public boolean runOnMethod(MethodGen mg, ConstantPoolGen cpgen) {
+		boolean modified = mg.getLineNumbers().length > 0 || mg.getLocalVariables().length > 0;
+		mg.removeLineNumbers();
+		mg.removeLocalVariables();
+		for (Attribute attribute : mg.getCodeAttributes()) {
+			if (attribute instanceof LocalVariableTypeTable) {
+				mg.removeCodeAttribute(attribute);
+				modified = true;
+			}
+		}
+		return modified;
+	}
+}
@@ -0,0 +1,123 @@
+package comp0012.main.passes;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The stores of one method, indexed by local variable slot.
+ * For every slot the bytecode positions of its stores are kept in an ascending int array, with the tag and
+ * bits of each stored ConstantValue and the slots it was computed from in parallel arrays. Finding the most
+ * recent store before a position, or whether a slot is written between two positions, is a binary search.
+ * Stores must be added in ascending position order, which is the order of an instruction list walk.
+ */
+class VariableStates
+{
+	private static final int INITIAL_SLOTS = 16;
+	private static final int INITIAL_STORES = 4;
+
+	private int[][] positions = new int[INITIAL_SLOTS][];
+	private byte[][] tags = new byte[INITIAL_SLOTS][];
+	private long[][] bits = new long[INITIAL_SLOTS][];
+	private BitSet[][] dependsOn = new BitSet[INITIAL_SLOTS][];
+	private int[] counts = new int[INITIAL_SLOTS];
+
+	void clear() {
+		Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * @param value the constant stored, which may be unknown
+	 * @param deps slots the value was computed from, may be null if there are none
+	 */
+	void add(int slot, int position, ConstantValue value, BitSet deps) {
+		if (slot >= counts.length) {
+			int size = Math.max(slot + 1, counts.length * 2);
+			positions = Arrays.copyOf(positions, size);
+			tags = Arrays.copyOf(tags, size);
+			bits = Arrays.copyOf(bits, size);
+			dependsOn = Arrays.copyOf(dependsOn, size);
+			counts = Arrays.copyOf(counts, size);
+		}
+		int n = counts[slot];
+		if (positions[slot] == null) {
+			positions[slot] = new int[INITIAL_STORES];
+			tags[slot] = new byte[INITIAL_STORES];
+			bits[slot] = new long[INITIAL_STORES];
+			dependsOn[slot] = new BitSet[INITIAL_STORES];
+		} else if (n == positions[slot].length) {
+			positions[slot] = Arrays.copyOf(positions[slot], n * 2);
+			tags[slot] = Arrays.copyOf(tags[slot], n * 2);
+			bits[slot] = Arrays.copyOf(bits[slot], n * 2);
+			dependsOn[slot] = Arrays.copyOf(dependsOn[slot], n * 2);
+		}
+		positions[slot][n] = position;
+		tags[slot][n] = value.getTag();
+		bits[slot][n] = value.getBits();
+		dependsOn[slot][n] = (deps == null || deps.isEmpty()) ? null : deps;
+		counts[slot] = n + 1;
+	}
+
+	/**
+	 * @return index of the last store to the slot strictly before the position, or -1 if there is none
+	 */
+	int mostRecent(int slot, int position) {
+		if (slot >= counts.length) return -1;
+		return lowerBound(slot, position) - 1;
+	}
+
+	int position(int slot, int index) {
+		return positions[slot][index];
+	}
+
+	/**
+	 * Copy the value of a store into out.
+	 * @return false, leaving out unknown, if the stored value is not a known constant
+	 */
+	boolean value(int slot, int index, ConstantValue out) {
+		return out.set(tags[slot][index], bits[slot][index]).isKnown();
+	}
+
+	/**
+	 * @return slots the stored value was computed from, or null if there are none
+	 */
+	BitSet dependsOn(int slot, int index) {
+		return dependsOn[slot][index];
+	}
+
+	/**
+	 * @return true if the slot is stored to strictly between the two positions
+	 */
+	boolean isReassigned(int slot, int fromPosition, int toPosition) {
+		if (slot >= counts.length) return false;
+		int next = lowerBound(slot, fromPosition + 1);
+		return next < counts[slot] && positions[slot][next] < toPosition;
+	}
+
+	/**
+	 * @return true if none of the slots is stored to strictly between the two positions
+	 */
+	boolean noneReassigned(BitSet slots, int fromPosition, int toPosition) {
+		if (slots == null) return true;
+		for (int dep = slots.nextSetBit(0); dep >= 0; dep = slots.nextSetBit(dep + 1)) {
+			if (isReassigned(dep, fromPosition, toPosition)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return index of the first store to the slot at or after the position
+	 */
+	private int lowerBound(int slot, int position) {
+		int[] p = positions[slot];
+		int lo = 0, hi = counts[slot];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (p[mid] < position) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,62 @@
+package comp0012.target;
+
+public class AlgebraicSimplification
+{
+    public int identities(int x){
+        int zero = 0;
+        int one = 1;
+        return (x + zero) * one - zero + (x | zero) + (x << zero) + (x & -1);
+    }
+
+    public long longIdentities(long x){
+        long one = 1L;
+        return (x * one) / one + (x ^ 0L);
+    }
+
+    public int multiplyByZero(int x){
+        int zero = 0;
+        return x * zero + 5;
+    }
+
+    public int powerOfTwo(int x){
+        int eight = 8;
+        return x * eight;
+    }
+
+    public long longPowerOfTwo(long x){
+        return x * 1024L;
+    }
+
+    public int negations(int x){
+        int minusOne = -1;
+        return -(-x) + x * minusOne + x / minusOne;
+    }
+
+    public int remainderOfCharacter(int x){
+        int sixteen = 16;
+        return (char) x % sixteen + (x % 1);
+    }
+
+    public int remainderOfMasked(int x){
+        return (x & 0x7FFF) % 64 + (x >>> 1) % 8;
+    }
+
+    public int remainderOfNegative(int x){
+        return x % 8;
+    }
+
+    public double floatingPoint(double x){
+        double one = 1.0;
+        double zero = 0.0;
+        return x * one / one - zero;
+    }
+
+    public double negativeZeroPlusZero(double x){
+        return x + 0.0;
+    }
+
+    public int storeThenLoad(int x){
+        int y = x * 3;
+        return y;
+    }
+}
@@ -0,0 +1,67 @@
+package comp0012.target;
+
+public class ArithmeticFolding
+{
+    public int intOverflow(){
+        int a = 2147483000;
+        int b = 1000;
+        return a + b;
+    }
+
+    public int minValueDividedByMinusOne(){
+        int a = Integer.MIN_VALUE;
+        int b = -1;
+        return a / b;
+    }
+
+    public long longMinValueRemainder(){
+        long a = Long.MIN_VALUE;
+        long b = -1;
+        return a % b;
+    }
+
+    public int divisionByZero(){
+        int a = 42;
+        int b = 0;
+        return a / b;
+    }
+
+    public double negativeZero(){
+        double a = 0.0;
+        double b = -2.5;
+        return a * b;
+    }
+
+    public double notANumber(){
+        double a = 0.0;
+        double b = 0.0;
+        return a / b;
+    }
+
+    public float floatDivisionByZero(){
+        float a = 1.5f;
+        float b = 0.0f;
+        return a / b;
+    }
+
+    public int conversions(){
+        double d = 1e20;
+        long l = (long) d;
+        int i = (int) l;
+        return (byte) 300 + (short) i + (char) -1;
+    }
+
+    public int shifts(){
+        int a = 1;
+        int b = 33;
+        long c = 1L;
+        return (a << b) + (int) (c << 65) + (-16 >>> 28) + (-16 >> 2);
+    }
+
+    public int bitwise(){
+        int a = 0xF0F0;
+        int b = 0x0FF0;
+        long c = 0xFF00FF00FFL;
+        return (a & b) + (a | b) + (a ^ b) + (int) (c & ~0xFFL);
+    }
+}
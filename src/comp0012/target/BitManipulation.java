@@ -0,0 +1,40 @@
+package comp0012.target;
+
+public class BitManipulation
+{
+    public int constantHash(){
+        int h = 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public long mixedWidth(){
+        int seed = 0x12345678;
+        long wide = ((long) seed << 32) | (seed & 0xFFFFFFFFL);
+        wide ^= wide >>> 33;
+        byte low = (byte) wide;
+        short mid = (short) (wide >> 16);
+        char high = (char) (wide >>> 48);
+        return wide + low + mid + high + (long) (float) seed + (int) (double) wide;
+    }
+
+    public int narrowing(int x){
+        return (byte) (short) x + (short) (char) x + (char) (short) x + (short) (byte) x;
+    }
+
+    public int roundTrips(int x){
+        return (int) (long) x + (int) (double) x;
+    }
+
+    public int reassociated(int x){
+        return ((x ^ 0x55) ^ 0x0F) + ((x & 0xFF0) & 0x0FF) + ((x | 1) | 2) + (((x << 2) << 3) >>> 1) + (x + 7 - 3);
+    }
+
+    public long longReassociated(long x){
+        return ((x * 3L) * 5L) ^ ((x >>> 4) >>> 8);
+    }
+}
@@ -26,4 +26,18 @@ public class ConstantVariableFolding
         long z = x + y;
         return x > y;
     }
+
+    public int methodFive(){
+        int a = 100000;
+        for (int i = 0; i < 3; i++) {
+            a++;
+        }
+        return a;
+    }
+
+    public int methodSix(){
+        int a = 100000;
+        a++;
+        return a;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package comp0012.target;
+
+public class ControlFlowFolding
+{
+    public int loopCounter(){
+        int i = 0;
+        int sum = 0;
+        while (i < 10) {
+            sum += i;
+            i++;
+        }
+        return sum;
+    }
+
+    public int sameOnBothBranches(boolean flag){
+        int a;
+        if (flag) {
+            a = 12;
+        } else {
+            a = 12;
+        }
+        return a * 2;
+    }
+
+    public int differentOnBranches(boolean flag){
+        int a = 1;
+        if (flag) {
+            a = 2;
+        }
+        return a + 1;
+    }
+
+    public int constantCondition(){
+        int a = 3;
+        int b;
+        if (a > 2) {
+            b = 10;
+        } else {
+            b = 20;
+        }
+        return b + a;
+    }
+
+    public int assignedInHandler(String s){
+        int a = 5;
+        try {
+            a = 6;
+            a = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return a;
+        }
+        return a;
+    }
+
+    public long longInLoop(int n){
+        long total = 0L;
+        long step = 3L;
+        for (int i = 0; i < n; i++) {
+            total += step;
+        }
+        return total;
+    }
+
+    public int constantSwitch(){
+        int key = 2;
+        switch (key) {
+            case 1: return 10;
+            case 2: return 20;
+            case 300: return 30;
+            default: return 40;
+        }
+    }
+
+    public int deadHandler(){
+        boolean debug = false;
+        int a = 1;
+        if (debug) {
+            try {
+                a = Integer.parseInt("x");
+            } catch (NumberFormatException e) {
+                a = -1;
+            }
+        }
+        return a;
+    }
+
+    public int doubleCondition(){
+        double limit = 0.5;
+        double value = Double.NaN;
+        if (value < limit) {
+            return 1;
+        }
+        return 2;
+    }
+
+    public int deadStoreWithSideEffect(String s){
+        int unused = Integer.parseInt(s);
+        long alsoUnused = 7L * 6L;
+        return 1;
+    }
+}
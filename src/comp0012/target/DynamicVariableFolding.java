@@ -1,6 +1,8 @@
 package comp0012.target;
 
 public class DynamicVariableFolding {
+    private int counter;
+
     public int methodOne() {
         int a = 42;
         int b = (a + 764) * 3;
@@ -35,4 +37,18 @@ public class DynamicVariableFolding {
          b = a + 2;
          return a * b;
      }
+
+    public int methodFive() {
+        int a = 7;
+        System.out.println(a);
+        a++;
+        int b = a * 3;
+        counter = b;
+        increment();
+        return b + counter;
+    }
+
+    private void increment() {
+        counter++;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package comp0012.target;
+
+public class FinalFieldFolding
+{
+    private final int shift;
+    private final long mask;
+    private final double rate;
+    private final int size;
+
+    public FinalFieldFolding(){
+        this.shift = 3;
+        this.mask = 0xFF00L;
+        this.rate = 0.25;
+        this.size = 16;
+    }
+
+    public FinalFieldFolding(int size){
+        this.shift = 3;
+        this.mask = 0xFF00L;
+        this.rate = 0.25;
+        this.size = size;
+    }
+
+    public FinalFieldFolding(boolean large){
+        this(large ? 1024 : 8);
+    }
+
+    public int scaled(int x){
+        return (x << shift) + (1 << shift);
+    }
+
+    public long masked(long bits){
+        return bits & mask;
+    }
+
+    public double interest(double amount){
+        return amount * rate * 4;
+    }
+
+    public int slots(){
+        return size >> shift;
+    }
+
+    class Inner
+    {
+        private final int offset;
+
+        Inner(){
+            this.offset = 100;
+        }
+
+        int value(){
+            return offset * 2;
+        }
+    }
+
+    public int innerValue(){
+        return new Inner().value();
+    }
+}
@@ -0,0 +1,61 @@
+package comp0012.target;
+
+public class MethodInlining
+{
+    static final class Config
+    {
+        static int timeout(){
+            return 30;
+        }
+
+        static long mask(int bits){
+            return (1L << bits) - 1;
+        }
+
+        final int scale(int x){
+            return x * 4;
+        }
+    }
+
+    private int offset = 5;
+
+    private static int square(int x){
+        return x * x;
+    }
+
+    private static int sumOfSquares(int a, int b){
+        return square(a) + square(b);
+    }
+
+    private int shifted(int x){
+        return x + 1;
+    }
+
+    static int countdown(int n){
+        return n <= 0 ? 0 : 1 + countdown(n - 1);
+    }
+
+    public int timeoutMillis(){
+        return Config.timeout() * 1000;
+    }
+
+    public long lowBits(long value){
+        return value & Config.mask(12);
+    }
+
+    public int nested(){
+        return sumOfSquares(3, 4);
+    }
+
+    public int instanceHelper(){
+        return shifted(41) + offset;
+    }
+
+    public int scaled(Config config){
+        return config.scale(10);
+    }
+
+    public int recursive(){
+        return countdown(5);
+    }
+}
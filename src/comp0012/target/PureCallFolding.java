@@ -0,0 +1,49 @@
+package comp0012.target;
+
+import comp0012.main.passes.Pure;
+
+public class PureCallFolding
+{
+    @Pure
+    static int mix(int a, int b){
+        return a * 31 + b;
+    }
+
+    public int maxOfConstants(){
+        return Math.max(3, 7);
+    }
+
+    public long absolute(){
+        return Math.abs(-5L);
+    }
+
+    public int rotated(){
+        int c = 0x12345678;
+        return Integer.rotateLeft(c, 5);
+    }
+
+    public int trailingZeros(){
+        return Long.numberOfTrailingZeros(64);
+    }
+
+    public long rawBits(){
+        return Double.doubleToRawLongBits(1.0);
+    }
+
+    public int parsed(){
+        return Integer.parseInt("42") + 1;
+    }
+
+    public int helper(){
+        return mix(2, 3) * 2;
+    }
+
+    public int invalidNumber(){
+        return Integer.parseInt("4x2");
+    }
+
+    public int overflow(){
+        int big = Integer.MAX_VALUE;
+        return Math.addExact(big, 1);
+    }
+}
@@ -0,0 +1,58 @@
+package comp0012.target;
+
+public class StaticFieldFolding
+{
+    static final int BLOCK;
+    static final long MASK;
+    static final double SCALE;
+
+    static {
+        BLOCK = 64;
+        MASK = 0xFFFFL << 8;
+        SCALE = 0.5;
+    }
+
+    static boolean noisyInitialised = false;
+
+    static class Limits
+    {
+        static final int MAX;
+        static final float RATIO;
+
+        static {
+            MAX = 1000;
+            RATIO = 1.5f;
+        }
+    }
+
+    static class Noisy
+    {
+        static final int ID;
+
+        static {
+            ID = 7;
+            noisyInitialised = true;
+        }
+    }
+
+    public int blocks(int size){
+        return (size + BLOCK - 1) / BLOCK;
+    }
+
+    public long masked(long bits){
+        return bits & MASK;
+    }
+
+    public double scaledLimit(){
+        return Limits.MAX * Limits.RATIO * SCALE;
+    }
+
+    public int clampedBlocks(){
+        int n = Limits.MAX / BLOCK;
+        return n > 10 ? 10 : n;
+    }
+
+    public int noisyId(){
+        return Noisy.ID;
+    }
+}
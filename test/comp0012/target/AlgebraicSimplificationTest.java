@@ -0,0 +1,73 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that algebraic identities and strength reductions keep the results of the JVM
+ */
+public class AlgebraicSimplificationTest {
+
+    AlgebraicSimplification as = new AlgebraicSimplification();
+
+    @Test
+    public void testIdentities(){
+        assertEquals(4 * -7, as.identities(-7));
+        assertEquals(4 * Integer.MIN_VALUE, as.identities(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testLongIdentities(){
+        assertEquals(2 * -9L, as.longIdentities(-9L));
+    }
+
+    @Test
+    public void testMultiplyByZero(){
+        assertEquals(5, as.multiplyByZero(123456));
+    }
+
+    @Test
+    public void testPowerOfTwo(){
+        assertEquals(-56, as.powerOfTwo(-7));
+        assertEquals(Integer.MAX_VALUE * 8, as.powerOfTwo(Integer.MAX_VALUE));
+        assertEquals(Long.MIN_VALUE + 1024L, as.longPowerOfTwo(0x20000000000001L));
+    }
+
+    @Test
+    public void testNegations(){
+        assertEquals(-5, as.negations(5));
+        assertEquals(Integer.MIN_VALUE, as.negations(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testRemainderOfCharacter(){
+        assertEquals(0xFFFF % 16, as.remainderOfCharacter(-1));
+    }
+
+    @Test
+    public void testRemainderOfMasked(){
+        assertEquals((-1 & 0x7FFF) % 64 + (-1 >>> 1) % 8, as.remainderOfMasked(-1));
+    }
+
+    @Test
+    public void testRemainderOfNegative(){
+        assertEquals(-3, as.remainderOfNegative(-11));
+    }
+
+    @Test
+    public void testFloatingPoint(){
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(as.floatingPoint(-0.0)));
+        assertEquals(Double.NaN, as.floatingPoint(Double.NaN), 0);
+    }
+
+    @Test
+    public void testNegativeZeroPlusZero(){
+        assertEquals(Double.doubleToRawLongBits(0.0), Double.doubleToRawLongBits(as.negativeZeroPlusZero(-0.0)));
+    }
+
+    @Test
+    public void testStoreThenLoad(){
+        assertEquals(-21, as.storeThenLoad(-7));
+    }
+}
@@ -0,0 +1,63 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that folded arithmetic gives the same results as the JVM
+ */
+public class ArithmeticFoldingTest {
+
+    ArithmeticFolding af = new ArithmeticFolding();
+
+    @Test
+    public void testIntOverflow(){
+        assertEquals(-2147483296, af.intOverflow());
+    }
+
+    @Test
+    public void testMinValueDividedByMinusOne(){
+        assertEquals(Integer.MIN_VALUE, af.minValueDividedByMinusOne());
+    }
+
+    @Test
+    public void testLongMinValueRemainder(){
+        assertEquals(0L, af.longMinValueRemainder());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero(){
+        af.divisionByZero();
+    }
+
+    @Test
+    public void testNegativeZero(){
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(af.negativeZero()));
+    }
+
+    @Test
+    public void testNotANumber(){
+        assertEquals(Double.NaN, af.notANumber(), 0);
+    }
+
+    @Test
+    public void testFloatDivisionByZero(){
+        assertEquals(Float.POSITIVE_INFINITY, af.floatDivisionByZero(), 0);
+    }
+
+    @Test
+    public void testConversions(){
+        assertEquals(44 + -1 + 65535, af.conversions());
+    }
+
+    @Test
+    public void testShifts(){
+        assertEquals(2 + 2 + 15 + -4, af.shifts());
+    }
+
+    @Test
+    public void testBitwise(){
+        assertEquals(0x00F0 + 0xFFF0 + 0xFF00 + 0x00FF0000, af.bitwise());
+    }
+}
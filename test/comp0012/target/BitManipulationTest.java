@@ -0,0 +1,61 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that folded conversions and bitwise operators keep the results of the JVM
+ */
+public class BitManipulationTest {
+
+    BitManipulation bm = new BitManipulation();
+
+    @Test
+    public void testConstantHash(){
+        int h = 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        assertEquals(h, bm.constantHash());
+    }
+
+    @Test
+    public void testMixedWidth(){
+        long wide = (0x12345678L << 32) | 0x12345678L;
+        wide ^= wide >>> 33;
+        assertEquals(wide + (byte) wide + (short) (wide >> 16) + (char) (wide >>> 48)
+                + (long) (float) 0x12345678 + (int) (double) wide, bm.mixedWidth());
+    }
+
+    @Test
+    public void testNarrowing(){
+        assertEquals(-1 + -1 + 0xFFFF + -1, bm.narrowing(-1));
+        assertEquals(0x78 + 0x5678 + 0x5678 + 0x78, bm.narrowing(0x12345678));
+        assertEquals(-128 + -32640 + 0x8080 + -128, bm.narrowing(0x8080));
+    }
+
+    @Test
+    public void testRoundTrips(){
+        assertEquals(2 * Integer.MIN_VALUE, bm.roundTrips(Integer.MIN_VALUE));
+        assertEquals(2 * 123456789, bm.roundTrips(123456789));
+    }
+
+    @Test
+    public void testReassociated(){
+        int x = 0x7FFFFFFF;
+        assertEquals(((x ^ 0x55) ^ 0x0F) + ((x & 0xFF0) & 0x0FF) + ((x | 1) | 2) + (((x << 2) << 3) >>> 1) + (x + 7 - 3),
+                bm.reassociated(x));
+        x = -12345;
+        assertEquals(((x ^ 0x55) ^ 0x0F) + ((x & 0xFF0) & 0x0FF) + ((x | 1) | 2) + (((x << 2) << 3) >>> 1) + (x + 7 - 3),
+                bm.reassociated(x));
+    }
+
+    @Test
+    public void testLongReassociated(){
+        long x = 0x123456789ABCDEFL;
+        assertEquals(((x * 3L) * 5L) ^ ((x >>> 4) >>> 8), bm.longReassociated(x));
+    }
+}
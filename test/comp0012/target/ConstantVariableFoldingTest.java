@@ -31,4 +31,14 @@ public class ConstantVariableFoldingTest {
     public void testMethodFour(){
         assertEquals(true, cvf.methodFour());
     }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(100003, cvf.methodFive());
+    }
+
+    @Test
+    public void testMethodSix(){
+        assertEquals(100001, cvf.methodSix());
+    }
 }
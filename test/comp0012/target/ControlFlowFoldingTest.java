@@ -0,0 +1,66 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that constants are only propagated along the paths that assign them
+ */
+public class ControlFlowFoldingTest {
+
+    ControlFlowFolding cff = new ControlFlowFolding();
+
+    @Test
+    public void testLoopCounter(){
+        assertEquals(45, cff.loopCounter());
+    }
+
+    @Test
+    public void testSameOnBothBranches(){
+        assertEquals(24, cff.sameOnBothBranches(true));
+        assertEquals(24, cff.sameOnBothBranches(false));
+    }
+
+    @Test
+    public void testDifferentOnBranches(){
+        assertEquals(3, cff.differentOnBranches(true));
+        assertEquals(2, cff.differentOnBranches(false));
+    }
+
+    @Test
+    public void testConstantCondition(){
+        assertEquals(13, cff.constantCondition());
+    }
+
+    @Test
+    public void testAssignedInHandler(){
+        assertEquals(7, cff.assignedInHandler("7"));
+        assertEquals(6, cff.assignedInHandler("x"));
+    }
+
+    @Test
+    public void testLongInLoop(){
+        assertEquals(12L, cff.longInLoop(4));
+    }
+
+    @Test
+    public void testConstantSwitch(){
+        assertEquals(20, cff.constantSwitch());
+    }
+
+    @Test
+    public void testDeadHandler(){
+        assertEquals(1, cff.deadHandler());
+    }
+
+    @Test
+    public void testDoubleCondition(){
+        assertEquals(2, cff.doubleCondition());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testDeadStoreWithSideEffect(){
+        cff.deadStoreWithSideEffect("x");
+    }
+}
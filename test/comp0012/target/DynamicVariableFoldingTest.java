@@ -60,5 +60,18 @@ public class DynamicVariableFoldingTest
         assertEquals(24, dvf.methodFour());
     }
 
+    @Test
+    public void testMethodFiveOut()
+    {
+        dvf.methodFive();
+        assertEquals("7\n", outContent.toString());
+    }
+
+    @Test
+    public void testMethodFiveReturn()
+    {
+        assertEquals(49, dvf.methodFive());
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that reads of final fields every constructor sets to the same constant keep their values when folded
+ */
+public class FinalFieldFoldingTest {
+
+    FinalFieldFolding ff = new FinalFieldFolding();
+
+    @Test
+    public void testScaled(){
+        assertEquals(8, ff.scaled(0));
+        assertEquals(48, ff.scaled(5));
+    }
+
+    @Test
+    public void testMasked(){
+        assertEquals(0x3400L, ff.masked(0x123456L));
+    }
+
+    @Test
+    public void testInterest(){
+        assertEquals(100.0, ff.interest(100.0), 0.0);
+    }
+
+    @Test
+    public void testSlotsDependOnConstructor(){
+        assertEquals(2, ff.slots());
+        assertEquals(5, new FinalFieldFolding(40).slots());
+        assertEquals(128, new FinalFieldFolding(true).slots());
+        assertEquals(1, new FinalFieldFolding(false).slots());
+    }
+
+    @Test
+    public void testInnerClass(){
+        assertEquals(200, ff.innerValue());
+    }
+}
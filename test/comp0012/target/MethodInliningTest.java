@@ -0,0 +1,48 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that calls of small methods keep their results, and their exceptions, when inlined
+ */
+public class MethodInliningTest {
+
+    MethodInlining mi = new MethodInlining();
+
+    @Test
+    public void testTimeoutMillis(){
+        assertEquals(30000, mi.timeoutMillis());
+    }
+
+    @Test
+    public void testLowBits(){
+        assertEquals(0xABCL, mi.lowBits(0x1ABCL));
+    }
+
+    @Test
+    public void testNested(){
+        assertEquals(25, mi.nested());
+    }
+
+    @Test
+    public void testInstanceHelper(){
+        assertEquals(47, mi.instanceHelper());
+    }
+
+    @Test
+    public void testScaled(){
+        assertEquals(40, mi.scaled(new MethodInlining.Config()));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testScaledNull(){
+        mi.scaled(null);
+    }
+
+    @Test
+    public void testRecursive(){
+        assertEquals(5, mi.recursive());
+    }
+}
@@ -0,0 +1,42 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that calls of pure methods with constant arguments keep their results, and their exceptions, when folded
+ */
+public class PureCallFoldingTest {
+
+    PureCallFolding pc = new PureCallFolding();
+
+    @Test
+    public void testJdkCalls(){
+        assertEquals(7, pc.maxOfConstants());
+        assertEquals(5L, pc.absolute());
+        assertEquals(Integer.rotateLeft(0x12345678, 5), pc.rotated());
+        assertEquals(6, pc.trailingZeros());
+        assertEquals(0x3FF0000000000000L, pc.rawBits());
+    }
+
+    @Test
+    public void testParsed(){
+        assertEquals(43, pc.parsed());
+    }
+
+    @Test
+    public void testPureHelper(){
+        assertEquals(130, pc.helper());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidNumber(){
+        pc.invalidNumber();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testOverflow(){
+        pc.overflow();
+    }
+}
@@ -0,0 +1,43 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that reads of static final fields keep their values, and their class initialisation, when folded
+ */
+public class StaticFieldFoldingTest {
+
+    StaticFieldFolding sf = new StaticFieldFolding();
+
+    @Test
+    public void testBlocks(){
+        assertEquals(0, sf.blocks(0));
+        assertEquals(1, sf.blocks(64));
+        assertEquals(2, sf.blocks(65));
+    }
+
+    @Test
+    public void testMasked(){
+        assertEquals(0xFFFF00L, sf.masked(-1L));
+        assertEquals(0x1200L, sf.masked(0x1234L));
+    }
+
+    @Test
+    public void testScaledLimit(){
+        assertEquals(750.0, sf.scaledLimit(), 0.0);
+    }
+
+    @Test
+    public void testClampedBlocks(){
+        assertEquals(10, sf.clampedBlocks());
+    }
+
+    @Test
+    public void testNoisyInitialisation(){
+        assertEquals(7, sf.noisyId());
+        assertTrue(StaticFieldFolding.noisyInitialised);
+    }
+}